@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import systemImp.BulkLoader;
+import systemImp.ChainedHashMap;
+import systemImp.MyHashSet;
+
+/**
+ * Seeding a map and a set from text files of records lines, one record per line.<br>
+ *
+ * - The map file is "(key, value)" lines over 9000 keys, the set file is words from Workloads.words(size, "mixed").<br>
+ * - bulkMap and bulkSet use BulkLoader. readerMap and readerSet read lines with a BufferedReader
+ * and put or add one at a time, the way the files were loaded before.<br>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkLoaderBenchmark {
+
+    @Param({"100000", "1000000"})
+    int records;
+
+    /** distinct words in the set file */
+    private static final int WORDS = 50000;
+
+    private Path mapFile;
+    private Path setFile;
+
+    @Setup
+    public void setup() throws IOException {
+        int[] keys = Workloads.mapKeys(9000, "random");
+        String[] words = Workloads.words(WORDS, "mixed");
+        StringBuilder map = new StringBuilder();
+        StringBuilder set = new StringBuilder();
+        for(int i = 0; i < records; i++) {
+            map.append('(').append(keys[i % keys.length]).append(", Value").append(i).append(")\n");
+            set.append(words[(int) ((i * 7919L) % WORDS)]).append('\n');
+        }
+        mapFile = Files.createTempFile("bulk", ".map");
+        setFile = Files.createTempFile("bulk", ".set");
+        Files.writeString(mapFile, map);
+        Files.writeString(setFile, set);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(mapFile);
+        Files.deleteIfExists(setFile);
+    }
+
+    @Benchmark
+    public ChainedHashMap bulkMap() throws IOException {
+        ChainedHashMap map = new ChainedHashMap();
+        BulkLoader.loadMap(mapFile, map);
+        return map;
+    }
+
+    @Benchmark
+    public ChainedHashMap readerMap() throws IOException {
+        ChainedHashMap map = new ChainedHashMap();
+        try(BufferedReader in = Files.newBufferedReader(mapFile)) {
+            String line;
+            while((line = in.readLine()) != null) {
+                int comma = line.indexOf(',');
+                map.put(Integer.parseInt(line.substring(1, comma)),
+                        line.substring(comma + 2, line.length() - 1));
+            }
+        }
+        return map;
+    }
+
+    @Benchmark
+    public MyHashSet bulkSet() throws IOException {
+        MyHashSet set = new MyHashSet();
+        BulkLoader.loadSet(setFile, set);
+        return set;
+    }
+
+    @Benchmark
+    public MyHashSet readerSet() throws IOException {
+        MyHashSet set = new MyHashSet();
+        try(BufferedReader in = Files.newBufferedReader(setFile)) {
+            String line;
+            while((line = in.readLine()) != null) {
+                set.add(line);
+            }
+        }
+        return set;
+    }
+}
@@ -0,0 +1,164 @@
+package benchmarks;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import systemImp.ChainedHashMap;
+
+/**
+ * ChainedHashMap operations on a map of size entries.<br>
+ *
+ * - Every single-key benchmark walks the key array round robin, so it hits every bucket.<br>
+ * - remove puts the key back afterwards so the map stays the same size.<br>
+ * - fill builds a map from empty, so it pays for every rehash on the way. putAll does the same in one bulk load.<br>
+ * - keyStream and parallelKeyStream sum every key, sequentially and split across the fork-join pool.<br>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainedHashMapBenchmark {
+
+    /** keys put per fill call */
+    private static final int FILL = 1000;
+
+    @Param({"100", "1000", "9000"})
+    int size;
+
+    @Param({"sequential", "random", "strided"})
+    String distribution;
+
+    @Param({"true", "false"})
+    boolean denseMode;
+
+    private int[] keys;
+    private String[] values;
+    private ChainedHashMap map;
+    private int[] fill;
+    private String[] fillValues;
+    private int next;
+
+    @Setup
+    public void setup() {
+        keys = Workloads.mapKeys(size, distribution);
+        values = Workloads.values(size);
+        fill = Workloads.mapKeys(FILL, distribution);
+        fillValues = Workloads.values(FILL);
+        map = newMap();
+        for(int i = 0; i < size; i++) {
+            map.put(keys[i], values[i]);
+        }
+    }
+
+    private ChainedHashMap newMap() {
+        ChainedHashMap m = new ChainedHashMap();
+        m.setDenseMode(denseMode);
+        return m;
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == size ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public void put() {
+        int i = nextIndex();
+        map.put(keys[i], values[i]);
+    }
+
+    @Benchmark
+    public String get() {
+        return map.get(keys[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean containsKey() {
+        return map.containsKey(keys[nextIndex()]);
+    }
+
+    @Benchmark
+    public void remove() {
+        int i = nextIndex();
+        map.remove(keys[i]);
+        map.put(keys[i], values[i]);
+    }
+
+    @Benchmark
+    public Object getValues() {
+        return map.getValues(values[nextIndex()]);
+    }
+
+    @Benchmark
+    public void iterator(Blackhole bh) {
+        Iterator<ChainedHashMap.Entry> iter = map.iterator();
+        while(iter.hasNext()) {
+            bh.consume(iter.next());
+        }
+    }
+
+    @Benchmark
+    public void forEach(Blackhole bh) {
+        map.forEach((key, value) -> bh.consume(value));
+    }
+
+    @Benchmark
+    public void cursor(Blackhole bh) {
+        ChainedHashMap.Cursor cursor = map.cursor();
+        while(cursor.advance()) {
+            bh.consume(cursor.value());
+        }
+    }
+
+    @Benchmark
+    public long keyStream() {
+        return map.keyStream().asLongStream().sum();
+    }
+
+    @Benchmark
+    public long parallelKeyStream() {
+        return map.keyStream().parallel().asLongStream().sum();
+    }
+
+    @Benchmark
+    public long parallelStream() {
+        return map.parallelStream().filter(e -> e.getKey() % 2 == 0).count();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILL)
+    public ChainedHashMap fill() {
+        //per put, averaged over building a FILL entry map from empty
+        ChainedHashMap m = newMap();
+        for(int i = 0; i < FILL; i++) {
+            m.put(fill[i], fillValues[i]);
+        }
+        return m;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILL)
+    public ChainedHashMap putAll() {
+        //same keys as fill, in one bulk load
+        ChainedHashMap m = newMap();
+        m.putAll(fill, fillValues);
+        return m;
+    }
+}
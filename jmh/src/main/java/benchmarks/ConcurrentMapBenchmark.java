@@ -0,0 +1,107 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import systemImp.ChainedHashMap;
+import systemImp.ConcurrentChainedHashMap;
+
+/**
+ * A shared map hit by several threads: the lock-striped ConcurrentChainedHashMap against a
+ * ChainedHashMap behind one global lock.<br>
+ *
+ * - Each op writes a key and reads its neighbour, and every eighth op removes the key again, so
+ * the map stays about the same size. Same mix as the many-threads unit test.<br>
+ * - Runs on 4 threads by default. Change it with -t, e.g. -Pjmh.args="-t 8". With fewer cores
+ * than threads the locks are rarely contended and striping has nothing to win.<br>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConcurrentMapBenchmark {
+
+    @Param({"1000", "9000"})
+    int size;
+
+    private int[] keys;
+    private String[] values;
+    private ConcurrentChainedHashMap striped;
+    private ChainedHashMap global;
+
+    /** Each thread's own walk through the keys, started at a different place */
+    @State(Scope.Thread)
+    public static class Walk {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        int next;
+        int ops;
+
+        @Setup
+        public void setup(ConcurrentMapBenchmark shared) {
+            next = THREADS.getAndIncrement() * 7919 % shared.size;
+        }
+
+        int nextIndex(int size) {
+            int i = next;
+            next = i + 1 == size ? 0 : i + 1;
+            return i;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        keys = Workloads.mapKeys(size, "random");
+        values = Workloads.values(size);
+        striped = new ConcurrentChainedHashMap();
+        global = new ChainedHashMap();
+        for(int i = 0; i < size; i++) {
+            striped.put(keys[i], values[i]);
+            global.put(keys[i], values[i]);
+        }
+    }
+
+    @Benchmark
+    public String striped(Walk walk) {
+        int i = walk.nextIndex(size);
+        striped.put(keys[i], values[i]);
+        String seen = striped.get(keys[i + 1 == size ? 0 : i + 1]);
+        if((++walk.ops & 7) == 0) {
+            striped.remove(keys[i]);
+        }
+        return seen;
+    }
+
+    @Benchmark
+    public String globalLock(Walk walk) {
+        int i = walk.nextIndex(size);
+        String seen;
+        synchronized(global) {
+            global.put(keys[i], values[i]);
+        }
+        synchronized(global) {
+            seen = global.get(keys[i + 1 == size ? 0 : i + 1]);
+        }
+        if((++walk.ops & 7) == 0) {
+            synchronized(global) {
+                global.remove(keys[i]);
+            }
+        }
+        return seen;
+    }
+}
@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import systemImp.DurableChainedHashMap;
+
+/**
+ * put on a DurableChainedHashMap at each durability, against the plain in-memory put in ChainedHashMapBenchmark.<br>
+ *
+ * - Keys walk 1000 entries round robin, so the map stays the same size and only the log grows.<br>
+ * - The log is compacted in the background as it goes, the same as in real use.<br>
+ * - One map is shared by every benchmark thread. BATCHED puts wait for the next group commit, so on one
+ * thread it measures the batch interval. Run it with -t, e.g. -Pjmh.args="-t 8", to see threads share a force.<br>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurableMapBenchmark {
+
+    private static final int SIZE = 1000;
+
+    @Param({"NONE", "BATCHED", "PER_OP"})
+    DurableChainedHashMap.Durability durability;
+
+    private int[] keys;
+    private String[] values;
+    private Path directory;
+    private DurableChainedHashMap map;
+
+    /** Each thread's own walk through the keys, started at a different place */
+    @State(Scope.Thread)
+    public static class Walk {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        int next;
+
+        @Setup
+        public void setup() {
+            next = THREADS.getAndIncrement() * 97 % SIZE;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        keys = Workloads.mapKeys(SIZE, "random");
+        values = Workloads.values(SIZE);
+        directory = Files.createTempDirectory("durable");
+        map = new DurableChainedHashMap(directory, durability);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        map.close();
+        try(var files = Files.list(directory)) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public void put(Walk walk) throws IOException {
+        int i = walk.next;
+        walk.next = i + 1 == SIZE ? 0 : i + 1;
+        map.put(keys[i], values[i]);
+    }
+}
@@ -0,0 +1,171 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import systemImp.MyHashSet;
+
+/**
+ * MyHashSet operations on a set of size words, for every load factor threshold.<br>
+ *
+ * - add adds a word that is not in the set and removes it again, so the set stays the same size.<br>
+ * - remove does the opposite: removes a word that is there and adds it back.<br>
+ * - rehash builds a set from empty, so it pays for every rehash on the way. addAll does the same in one bulk load.<br>
+ * - churn slides a window of size words along a longer run: each call adds the next word and removes
+ * the one added size calls ago. That the probe length stays flat under churn is checked by
+ * testChurnKeepsProbesShort in StudentTests, this only times it.<br>
+ * - 50000 words is past the point where the set switches to its bitmap.<br>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MyHashSetBenchmark {
+
+    /** words checked per containsAll call */
+    private static final int BATCH = 16;
+    /** words added per rehash call */
+    private static final int FILL = 1000;
+
+    @Param({"100", "1000", "10000", "50000"})
+    int size;
+
+    @Param({"short", "long", "mixed"})
+    String distribution;
+
+    @Param({"0.45", "0.60", "0.75", "0.85"})
+    double threshold;
+
+    private String[] present;
+    private String[] absent;
+    private String[][] batches;
+    private String[] fill;
+    private MyHashSet set;
+    private int next;
+    /** the words churn adds and removes in order, four windows long */
+    private String[] churnWords;
+    private MyHashSet churnSet;
+    private int churnNext;
+
+    @Setup
+    public void setup() {
+        //the first half is put in the set, the second half never is
+        String[] words = Workloads.words(2 * size, distribution);
+        present = new String[size];
+        absent = new String[size];
+        System.arraycopy(words, 0, present, 0, size);
+        System.arraycopy(words, size, absent, 0, size);
+        set = newSet();
+        for(String word : present) {
+            set.add(word);
+        }
+        fill = Workloads.words(FILL, distribution);
+        batches = new String[size][BATCH];
+        for(int i = 0; i < size; i++) {
+            for(int j = 0; j < BATCH; j++) {
+                batches[i][j] = present[(i + j) % size];
+            }
+        }
+        churnWords = Workloads.words(4 * size, distribution);
+        churnSet = newSet();
+        for(int i = 0; i < size; i++) {
+            churnSet.add(churnWords[i]);
+        }
+        churnNext = size;
+    }
+
+    private MyHashSet newSet() {
+        MyHashSet s = new MyHashSet();
+        s.setLoadFactorThreshold(threshold);
+        return s;
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == size ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public void add() {
+        String word = absent[nextIndex()];
+        set.add(word);
+        set.remove(word);
+    }
+
+    @Benchmark
+    public void churn() {
+        //the word size calls back is always the one still in the window
+        int i = churnNext;
+        churnNext = i + 1 == churnWords.length ? 0 : i + 1;
+        int old = i - size;
+        churnSet.add(churnWords[i]);
+        churnSet.remove(churnWords[old < 0 ? old + churnWords.length : old]);
+    }
+
+    @Benchmark
+    public long stream() {
+        return set.stream().filter(w -> w.length() == 5).count();
+    }
+
+    @Benchmark
+    public long parallelStream() {
+        return set.parallelStream().filter(w -> w.length() == 5).count();
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return set.contains(present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return set.contains(absent[nextIndex()]);
+    }
+
+    @Benchmark
+    public void remove() {
+        String word = present[nextIndex()];
+        set.remove(word);
+        set.add(word);
+    }
+
+    @Benchmark
+    public boolean containsAll() {
+        return set.containsAll(batches[nextIndex()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILL)
+    public MyHashSet rehash() {
+        //per add, averaged over building a FILL word set from empty
+        MyHashSet s = newSet();
+        for(String word : fill) {
+            s.add(word);
+        }
+        return s;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILL)
+    public MyHashSet addAll() {
+        //same words as rehash, in one bulk load
+        MyHashSet s = newSet();
+        s.addAll(fill);
+        return s;
+    }
+}
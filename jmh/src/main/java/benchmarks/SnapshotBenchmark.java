@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import systemImp.ChainedHashMap;
+import systemImp.MapSnapshot;
+
+/**
+ * Restoring a ChainedHashMap of size entries with valueLength character values.<br>
+ *
+ * - read loads a MapSnapshot file, which the page cache keeps warm after the first iteration.<br>
+ * - replay puts the same entries one by one, the way a restart rebuilt the map before. It reuses the value Strings
+ * already in memory, so it is a lower bound for replaying from any text dump.<br>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    @Param({"1000", "9000"})
+    int size;
+
+    @Param({"16", "256"})
+    int valueLength;
+
+    private int[] keys;
+    private String[] values;
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        keys = Workloads.mapKeys(size, "random");
+        values = new String[size];
+        for(int i = 0; i < size; i++) {
+            StringBuilder value = new StringBuilder();
+            while(value.length() < valueLength) {
+                value.append(keys[i]);
+            }
+            values[i] = value.substring(0, valueLength);
+        }
+        ChainedHashMap map = new ChainedHashMap();
+        for(int i = 0; i < size; i++) {
+            map.put(keys[i], values[i]);
+        }
+        file = Files.createTempFile("snapshot", ".bin");
+        MapSnapshot.write(map, file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public ChainedHashMap read() throws IOException {
+        return MapSnapshot.read(file);
+    }
+
+    @Benchmark
+    public ChainedHashMap replay() {
+        ChainedHashMap map = new ChainedHashMap();
+        for(int i = 0; i < size; i++) {
+            map.put(keys[i], values[i]);
+        }
+        return map;
+    }
+}
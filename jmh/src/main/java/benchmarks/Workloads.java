@@ -0,0 +1,128 @@
+package benchmarks;
+
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Key sets shared by the benchmarks.<br>
+ *
+ * - Everything is generated from a fixed seed, so runs are comparable.<br>
+ * - Map keys are unique and inside 1000 - 9999.<br>
+ * - Set words are unique, lowercase and 1 to 5 letters long.<br>
+ */
+final class Workloads {
+
+    private static final long SEED = 20240601L;
+
+    private Workloads() {
+    }
+
+    /**
+     * size unique map keys:<br>
+     * sequential - 1000, 1001, 1002, ...<br>
+     * random - a random sample of the whole key range<br>
+     * strided - evenly spaced over the whole key range<br>
+     */
+    static int[] mapKeys(int size, String distribution) {
+        if(size > 9000) {
+            throw new IllegalArgumentException("only 9000 keys exist");
+        }
+        int[] keys = new int[size];
+        switch(distribution) {
+            case "sequential":
+                for(int i = 0; i < size; i++) {
+                    keys[i] = 1000 + i;
+                }
+                return keys;
+            case "random":
+                int[] all = new int[9000];
+                for(int i = 0; i < all.length; i++) {
+                    all[i] = 1000 + i;
+                }
+                shuffle(all, new Random(SEED));
+                System.arraycopy(all, 0, keys, 0, size);
+                return keys;
+            case "strided":
+                int stride = 9000 / size;
+                for(int i = 0; i < size; i++) {
+                    keys[i] = 1000 + i * stride;
+                }
+                return keys;
+            default:
+                throw new IllegalArgumentException(distribution);
+        }
+    }
+
+    /**
+     * size unique words:<br>
+     * short - 1 to 4 letters, where the base 19 hash collides the most<br>
+     * long - 5 letters only<br>
+     * mixed - any length from 1 to 5<br>
+     */
+    static String[] words(int size, String distribution) {
+        int low;
+        int high;
+        switch(distribution) {
+            case "short":
+                low = 0;
+                high = 26 + 26 * 26 + 26 * 26 * 26 + 26 * 26 * 26 * 26;
+                break;
+            case "long":
+                low = 26 + 26 * 26 + 26 * 26 * 26 + 26 * 26 * 26 * 26;
+                high = low + 26 * 26 * 26 * 26 * 26;
+                break;
+            case "mixed":
+                low = 0;
+                high = 26 + 26 * 26 + 26 * 26 * 26 + 26 * 26 * 26 * 26 + 26 * 26 * 26 * 26 * 26;
+                break;
+            default:
+                throw new IllegalArgumentException(distribution);
+        }
+        Random random = new Random(SEED);
+        HashSet<Integer> seen = new HashSet<>();
+        String[] words = new String[size];
+        int count = 0;
+        while(count < size) {
+            int n = low + random.nextInt(high - low);
+            if(seen.add(n)) {
+                words[count++] = word(n);
+            }
+        }
+        return words;
+    }
+
+    /** map values: 16 distinct strings, so getValues finds size / 16 keys */
+    static String[] values(int size) {
+        String[] values = new String[size];
+        for(int i = 0; i < size; i++) {
+            values[i] = "value" + (i % 16);
+        }
+        return values;
+    }
+
+    //n-th word when all words are listed shortest first, a-z within a length
+    private static String word(int n) {
+        int length = 1;
+        int count = 26;
+        while(n >= count) {
+            n -= count;
+            length++;
+            count *= 26;
+        }
+        char[] letters = new char[length];
+        for(int i = length - 1; i >= 0; i--) {
+            letters[i] = (char) ('a' + n % 26);
+            n /= 26;
+        }
+        return new String(letters);
+    }
+
+    private static void shuffle(int[] array, Random random) {
+        for(int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package systemImp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Loads large text files into a ChainedHashMap or a MyHashSet.<br>
+ *
+ * - The file is cut into chunks at line breaks, and each chunk is memory-mapped and parsed on its own,
+ * in parallel. Bytes are parsed in place, so no String is made per line, and a map value only becomes
+ * a String if no later pair overwrites it.<br>
+ * - Map files hold (key, value) pairs, as many per line as wanted. This is the toString format, so
+ * dumps like pubTest02.txt load as they are. Text outside the parentheses is ignored.<br>
+ * - Set files hold words separated by whitespace. The null and DELETED slots of "Index i: word" toString
+ * lines are empty slots, not words.<br>
+ * - Bad input is handled the same way for both: a malformed pair, a pair with a key out of range, or a
+ * word that isn't a valid key is skipped and counted, and the load goes on. The returned Report says how
+ * many records were loaded and how many were skipped. Only I/O failures throw.<br>
+ * - The results are merged in file order, and the target is sized once for what the file holds before
+ * anything is inserted. The target ends up the same as with one put or add per record, in file order.<br>
+ */
+public final class BulkLoader {
+
+    /** Files smaller than this are parsed as one chunk */
+    private static final long MIN_CHUNK = 1 << 20;
+    /** Bytes read at a time while looking for a line break */
+    private static final int SCAN = 4096;
+
+    private BulkLoader() {
+    }
+
+    /** What a load found: records it read and invalid records it skipped, each counted once per time it appears */
+    public static final class Report {
+        private final int read;
+        private final int skipped;
+
+        Report(int read, int skipped) {
+            this.read = read;
+            this.skipped = skipped;
+        }
+
+        public int getRead() {
+            return read;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public String toString() {
+            return read + " read, " + skipped + " skipped";
+        }
+    }
+
+    /**
+     * Pairs parsed from one chunk, in file order. Values stay in the mapped chunk as an offset and
+     * length until the merge knows which ones survive, so overwritten values never become Strings
+     */
+    private static final class MapChunk {
+        final ByteBuffer bytes;
+        int[] keys = new int[64];
+        int[] from = new int[64];
+        int[] length = new int[64];
+        int count;
+        int skipped;
+
+        MapChunk(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        void add(int key, int valueFrom, int valueLength) {
+            if(count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                from = Arrays.copyOf(from, count * 2);
+                length = Arrays.copyOf(length, count * 2);
+            }
+            keys[count] = key;
+            from[count] = valueFrom;
+            length[count++] = valueLength;
+        }
+
+        String value(int i, byte[] scratch) {
+            bytes.get(from[i], scratch, 0, length[i]);
+            return new String(scratch, 0, length[i], StandardCharsets.UTF_8);
+        }
+    }
+
+    /** KeyCodec codes of the words in one chunk, in file order, and how many tokens weren't words */
+    private static final class SetChunk {
+        final IntBag codes = new IntBag();
+        int skipped;
+    }
+
+    //puts every valid pair in file into target and skips the rest
+    public static Report loadMap(Path file, ChainedHashMap target) throws IOException {
+        if(file == null || target == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        MapChunk[] chunks;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = split(channel);
+            try {
+                chunks = IntStream.range(0, bounds.length - 1).parallel()
+                        .mapToObj(i -> parseMap(channel, bounds[i], bounds[i + 1]))
+                        .toArray(MapChunk[]::new);
+            } catch(UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        //a key goes where its first pair puts it, with the value of its last
+        //pair, same as putting them one by one
+        int[] order = new int[ChainedHashMap.KEY_RANGE];
+        Arrays.fill(order, -1);
+        int[] lastChunk = new int[ChainedHashMap.KEY_RANGE];
+        int[] lastPair = new int[ChainedHashMap.KEY_RANGE];
+        int[] keys = new int[ChainedHashMap.KEY_RANGE];
+        int unique = 0;
+        int total = 0;
+        int skipped = 0;
+        int longest = 0;
+        for(int c = 0; c < chunks.length; c++) {
+            MapChunk chunk = chunks[c];
+            total += chunk.count;
+            skipped += chunk.skipped;
+            for(int i = 0; i < chunk.count; i++) {
+                int k = chunk.keys[i] - ChainedHashMap.MIN_KEY;
+                if(order[k] < 0) {
+                    order[k] = unique;
+                    keys[unique++] = chunk.keys[i];
+                }
+                lastChunk[k] = c;
+                lastPair[k] = i;
+                longest = Math.max(longest, chunk.length[i]);
+            }
+        }
+        //only the values that survive become Strings
+        byte[] scratch = new byte[longest];
+        String[] values = new String[unique];
+        for(int u = 0; u < unique; u++) {
+            int k = keys[u] - ChainedHashMap.MIN_KEY;
+            values[u] = chunks[lastChunk[k]].value(lastPair[k], scratch);
+        }
+        target.putAll(Arrays.copyOf(keys, unique), values);
+        return new Report(total, skipped);
+    }
+
+    //adds every valid word in file to target and skips the other tokens
+    public static Report loadSet(Path file, MyHashSet target) throws IOException {
+        if(file == null || target == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        SetChunk[] chunks;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = split(channel);
+            try {
+                chunks = IntStream.range(0, bounds.length - 1).parallel()
+                        .mapToObj(i -> parseSet(channel, bounds[i], bounds[i + 1]))
+                        .toArray(SetChunk[]::new);
+            } catch(UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        //first time each word shows up, in file order
+        long[] seen = new long[(KeyCodec.CODE_LIMIT >>> 6) + 1];
+        IntBag unique = new IntBag();
+        int total = 0;
+        int skipped = 0;
+        for(SetChunk chunk : chunks) {
+            int[] codes = chunk.codes.toArray();
+            total += codes.length;
+            skipped += chunk.skipped;
+            for(int code : codes) {
+                long bit = 1L << code;
+                if((seen[code >>> 6] & bit) == 0) {
+                    seen[code >>> 6] |= bit;
+                    unique.add(code);
+                }
+            }
+        }
+        target.reserve(target.size() + unique.size());
+        //one reused CharSequence, add only makes a String for a new key
+        char[] letters = new char[KeyCodec.MAX_LENGTH];
+        CharBuffer word = CharBuffer.wrap(letters);
+        for(int code : unique.toArray()) {
+            int start = KeyCodec.MAX_LENGTH;
+            for(int c = code; c > 0; c /= KeyCodec.RADIX) {
+                letters[--start] = (char) ('a' + c % KeyCodec.RADIX - 1);
+            }
+            word.limit(KeyCodec.MAX_LENGTH).position(start);
+            target.add(word);
+        }
+        return new Report(total, skipped);
+    }
+
+    //chunk boundaries: starts of the chunks, then the file size. every
+    //boundary but the ends is just after a line break
+    private static long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int chunks = (int) Math.max(1, Math.min(size / MIN_CHUNK,
+                4L * Runtime.getRuntime().availableProcessors()));
+        long[] bounds = new long[chunks + 1];
+        bounds[chunks] = size;
+        ByteBuffer scan = ByteBuffer.allocate(SCAN);
+        for(int i = 1; i < chunks; i++) {
+            long at = Math.max(bounds[i - 1], size * i / chunks);
+            bounds[i] = lineStart(channel, at, scan);
+        }
+        return bounds;
+    }
+
+    //position just after the first line break at or after at, or the end
+    private static long lineStart(FileChannel channel, long at, ByteBuffer scan) throws IOException {
+        long size = channel.size();
+        while(at < size) {
+            scan.clear();
+            int read = channel.read(scan, at);
+            if(read <= 0) {
+                break;
+            }
+            for(int i = 0; i < read; i++) {
+                if(scan.get(i) == '\n') {
+                    return at + i + 1;
+                }
+            }
+            at += read;
+        }
+        return size;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long end) {
+        if(end - start > Integer.MAX_VALUE) {
+            throw new UncheckedIOException(new IOException("Line too long at byte " + start));
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //every valid (key, value) pair in [start, end). a pair that is cut short
+    //is skipped from its '(', one with a key out of range as a whole
+    private static MapChunk parseMap(FileChannel channel, long start, long end) {
+        MappedByteBuffer in = map(channel, start, end);
+        MapChunk chunk = new MapChunk(in);
+        int n = in.limit();
+        int i = 0;
+        while(i < n) {
+            if(in.get(i) != '(') {
+                i++;
+                continue;
+            }
+            int open = i++;
+            int key = 0;
+            int digits = 0;
+            byte b;
+            while(i < n && (b = in.get(i)) >= '0' && b <= '9' && digits < 5) {
+                key = key * 10 + (b - '0');
+                digits++;
+                i++;
+            }
+            if(digits == 0 || i >= n || in.get(i) != ',') {
+                chunk.skipped++;
+                i = open + 1;
+                continue;
+            }
+            i++;
+            while(i < n && in.get(i) == ' ') {
+                i++;
+            }
+            int from = i;
+            while(i < n && (b = in.get(i)) != ')' && b != '\n') {
+                i++;
+            }
+            if(i >= n || in.get(i) != ')') {
+                chunk.skipped++;
+                i = open + 1;
+                continue;
+            }
+            if(key >= ChainedHashMap.MIN_KEY && key < ChainedHashMap.MIN_KEY + ChainedHashMap.KEY_RANGE) {
+                chunk.add(key, from, i - from);
+            } else {
+                chunk.skipped++;
+            }
+            i++;
+        }
+        return chunk;
+    }
+
+    //KeyCodec codes of every valid word in [start, end), and a count of the
+    //tokens that aren't valid words
+    private static SetChunk parseSet(FileChannel channel, long start, long end) {
+        MappedByteBuffer in = map(channel, start, end);
+        SetChunk chunk = new SetChunk();
+        int n = in.limit();
+        int i = 0;
+        while(i < n) {
+            int lineEnd = i;
+            while(lineEnd < n && in.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if(startsWith(in, i, lineEnd, "Index ")) {
+                //a toString line, the word is whatever follows ": "
+                int colon = i;
+                while(colon < lineEnd && in.get(colon) != ':') {
+                    colon++;
+                }
+                int from = colon + 1;
+                while(from < lineEnd && isBlank(in.get(from))) {
+                    from++;
+                }
+                int to = lineEnd;
+                while(to > from && isBlank(in.get(to - 1))) {
+                    to--;
+                }
+                if(!equals(in, from, to, "null") && !equals(in, from, to, "DELETED")) {
+                    addWord(in, from, to, chunk);
+                }
+            } else {
+                int from = i;
+                while(from < lineEnd) {
+                    while(from < lineEnd && isBlank(in.get(from))) {
+                        from++;
+                    }
+                    int to = from;
+                    while(to < lineEnd && !isBlank(in.get(to))) {
+                        to++;
+                    }
+                    addWord(in, from, to, chunk);
+                    from = to;
+                }
+            }
+            i = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    //adds the code of the word in [from, to) if it is a valid key, and
+    //counts it as skipped if it isn't. an empty range is no token at all
+    private static void addWord(ByteBuffer in, int from, int to, SetChunk chunk) {
+        int length = to - from;
+        if(length <= 0) {
+            return;
+        }
+        if(length > KeyCodec.MAX_LENGTH) {
+            chunk.skipped++;
+            return;
+        }
+        int code = 0;
+        for(int i = from; i < to; i++) {
+            byte b = in.get(i);
+            if(b < 'a' || b > 'z') {
+                chunk.skipped++;
+                return;
+            }
+            code = code * KeyCodec.RADIX + (b - 'a' + 1);
+        }
+        chunk.codes.add(code);
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean startsWith(ByteBuffer in, int from, int to, String prefix) {
+        return to - from >= prefix.length() && equals(in, from, from + prefix.length(), prefix);
+    }
+
+    private static boolean equals(ByteBuffer in, int from, int to, String text) {
+        if(to - from != text.length()) {
+            return false;
+        }
+        for(int i = 0; i < text.length(); i++) {
+            if(in.get(from + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
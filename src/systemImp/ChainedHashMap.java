@@ -1,22 +1,50 @@
 package systemImp;
 
-import java.util.LinkedList; 
 import java.util.ArrayList; //ONLY use for return value of getValues method
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * A HashMap implementation using separate chaining with LinkedLists.<br>
+ * A HashMap implementation using separate chaining.<br>
  * 
  * - Stores Integer keys and String values. <br>
+ * - The chains are kept in parallel arrays instead of LinkedLists: head and tail hold the first and
+ * last slot of each bucket's chain, and slot i holds one entry in slotKey[i], slotValue[i] and
+ * slotNext[i] (the next slot in its chain). Removed slots go on a free list and are reused.
+ * New entries go on the end of their chain, so buckets keep the same order LinkedLists gave them.<br>
  * - Uses a hash function with compression: ((A * key + B) % P) % table.length<br>
- * - Rehashes when the average chain length exceeds a threshold.<br>
+ * - Rehashes to the next prime when the average chain length exceeds a threshold, with no upper limit,
+ * and shrinks back down when remove leaves the chains short.<br>
+ * - A chain longer than SORTED_ON also gets a copy sorted by key, so get, containsKey and remove
+ * binary search it instead of walking the chain. The copy is dropped when the chain gets shorter
+ * than SORTED_OFF. The chains themselves, and so toString and iteration order, don't change.<br>
  * - Does not allow duplicate keys (updates value instead), and keys must be 4-digit integers from 1000 (inclusive) to 9999 (inclusive).<br>
  * - Does not allows null values.<br>
- * - Uses an initial size of 2 to encourage collisions.<br>
+ * - Uses an initial size of 2 to encourage collisions, unless it is given an expected size.
+ * reserve(n) (or the expected size) sizes the table for n entries right away, and remove never
+ * shrinks it below that.<br>
+ * - Once it holds more than DENSE_ON keys it switches to a direct-addressed table indexed by key - 1000,
+ * and switches back to chaining when it drops below DENSE_OFF. This can be turned off with setDenseMode.<br>
+ * - Can keep an optional index from each value to its keys (setValueIndex), so getValues doesn't scan the table.<br>
+ * - Can rehash incrementally (setIncrementalRehash): the old and new tables are kept side by side and
+ * every put, get, containsKey and remove moves MIGRATE_STEP buckets across.<br>
+ * - putAll sizes the table once for everything it adds, then adds it all without rehashing.<br>
+ * - forEach and cursor() walk every entry without allocating, iterator() makes an Entry per step.<br>
+ * - stream(), parallelStream() and keyStream() (an IntStream) run on a Spliterator that splits by bucket
+ * ranges and knows exactly how many entries each range holds.<br>
+ * - Can record statistics (setStatsEnabled): hits, misses, rehashes and chain length histograms.<br>
+ * - Implements IntStringMap, so OpenHashMap can be used in its place.<br>
  * - Since keys are 4-digit numbers,  integer overflow is not a concern.<br>
  */
-public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
+public class ChainedHashMap implements IntStringMap {
     
     /** A large prime number for hashing */
     private static final int P = 104729;
@@ -29,18 +57,81 @@ public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
     private static final int INITIAL_SIZE = 2;
     /** Threshold for rehashing: when avg chain length exceeds this, we rehash */
     private static final int RESIZE_THRESHOLD = 3;
-    /** Prime sizes for resizing */
-    private static final int[] PRIMES = {2, 5, 11, 23, 47, 97, 197, 397};
+    /** Threshold for shrinking: when avg chain length drops below this, we shrink */
+    private static final double SHRINK_THRESHOLD = RESIZE_THRESHOLD / 4.0;
+    /** Prime sizes for resizing: 2, 5, 11, 23, 47, 97, 197, 397, 797, ... */
+    private static final int[] PRIMES = Primes.LADDER;
+    /** Buckets moved to the new table per operation during an incremental rehash */
+    private static final int MIGRATE_STEP = 2;
+    /** Smallest valid key, slot 0 of the direct-addressed table. Also used by BulkLoader */
+    static final int MIN_KEY = 1000;
+    /** Number of valid keys (1000 - 9999), the length of the direct-addressed table. Also used by BulkLoader */
+    static final int KEY_RANGE = 9000;
+    /**
+     * Size above which we use the direct-addressed table: no hashing and no chain to walk.
+     * Its 9000 references take about 36 KB. The chains take 12 bytes per bucket plus 12 per
+     * slot, with the slots doubling, and first pass that at 1200 entries (797 buckets, 2048
+     * slots), so from here on the dense table is both faster and smaller
+     */
+    private static final int DENSE_ON = 1200;
+    /** Size below which we go back to chaining, half of DENSE_ON so we don't flip back and forth */
+    private static final int DENSE_OFF = 600;
+    /** Chain length above which a chain gets a sorted copy for binary search */
+    private static final int SORTED_ON = 8;
+    /** Chain length below which the sorted copy is dropped, a bit under SORTED_ON so it doesn't flip back and forth */
+    private static final int SORTED_OFF = 6;
+    /** End of a chain, an empty bucket, or an empty free list */
+    private static final int NONE = -1;
+    /** What the spliterators report: bucket order, and exact sizes for every split */
+    private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.DISTINCT
+    		| Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
 
-    /** The hash table, where each index contains a linked list of entries */
-    private LinkedList<Entry>[] table;
+    /** The hash table: the first slot of each bucket's chain, or NONE */
+    private int[] head;
+    /** The last slot of each bucket's chain, or NONE */
+    private int[] tail;
+    /** The number of entries in each bucket's chain */
+    private int[] chainLength;
+    /**
+     * For each chain longer than SORTED_ON, its slots sorted by key (with spare room
+     * at the end), otherwise null. As many are used as the chain is long
+     */
+    private int[][] sorted;
+    /** Key of the entry in each slot */
+    private int[] slotKey;
+    /** Value of the entry in each slot, null for a free slot */
+    private String[] slotValue;
+    /** The next slot in the same chain (or in the free list), or NONE */
+    private int[] slotNext;
+    /** Slots below this have been handed out at least once */
+    private int slotsUsed;
+    /** First slot of the free list, or NONE */
+    private int freeSlot;
     /** The number of key-value pairs stored */
     private int size;
     /** The index of the current prime in PRIMES */
     private int primeIndex;
+    /** Smallest primeIndex remove may shrink to, set by reserve */
+    private int reservedIndex;
+    /** Direct-addressed table, value of key k is at k - MIN_KEY. null while chaining */
+    private String[] dense;
+    /** Whether the map may switch to the direct-addressed table */
+    private boolean denseEnabled;
+    /** Keys of every value, kept by put and remove. null unless turned on with setValueIndex */
+    private HashMap<String, IntBag> valueIndex;
+    /** Whether resizes move buckets a few at a time instead of all at once */
+    private boolean incremental;
+    /** Chain heads of the table being migrated out of during an incremental rehash, otherwise null */
+    private int[] oldHead;
+    /** Chain tails of the table being migrated out of, otherwise null */
+    private int[] oldTail;
+    /** Buckets of the old table below this have already been moved to the current one */
+    private int migrateIndex;
+    /** Hit, miss and rehash counters. null unless turned on with setStatsEnabled */
+    private HashTableStats stats;
 
     /**
-     * Entry class for storing key-value pairs in the linked list.<br>
+     * Entry class for handing out key-value pairs from iterator().<br>
      * Do NOT MAKE ANY CHANGES to  public static class Entry
      */
     public static class Entry {
@@ -57,19 +148,225 @@ public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
     }
     
     //instantiates ChainHashMap object
-    @SuppressWarnings("unchecked")
 	public ChainedHashMap() {
-    	table = (LinkedList<Entry>[]) new LinkedList[INITIAL_SIZE];
+    	newTable(INITIAL_SIZE);
+    	sorted = new int[INITIAL_SIZE][];
+    	newSlots(INITIAL_SIZE);
     	this.primeIndex = 0;
     	this.size = 0;
+    	this.denseEnabled = true;
+    }
+    
+    //instantiates a ChainedHashMap sized for expectedSize entries, so
+    //it doesn't rehash on the way there
+    public ChainedHashMap(int expectedSize) {
+    	this();
+    	reserve(expectedSize);
     }
     
     //private method that calculates the hash
     private int hash(int key) {
-    	int hashCode = ((A * key + B) % P) % table.length;
+    	int hashCode = ((A * key + B) % P) % head.length;
     	return hashCode;
     }
     
+    //empty buckets for a table of the given length
+    private void newTable(int length) {
+    	head = new int[length];
+    	tail = new int[length];
+    	chainLength = new int[length];
+    	Arrays.fill(head, NONE);
+    	Arrays.fill(tail, NONE);
+    }
+    
+    //empty entry storage with room for capacity entries
+    private void newSlots(int capacity) {
+    	slotKey = new int[capacity];
+    	slotValue = new String[capacity];
+    	slotNext = new int[capacity];
+    	slotsUsed = 0;
+    	freeSlot = NONE;
+    }
+    
+    //makes sure count more entries fit without growing the storage
+    private void reserveSlots(long count) {
+    	long needed = slotsUsed + count;
+    	if(needed > slotKey.length) {
+    		growSlots((int) Math.min(needed, Integer.MAX_VALUE - 8));
+    	}
+    }
+    
+    private void growSlots(int capacity) {
+    	slotKey = Arrays.copyOf(slotKey, capacity);
+    	slotValue = Arrays.copyOf(slotValue, capacity);
+    	slotNext = Arrays.copyOf(slotNext, capacity);
+    }
+    
+    //a slot holding a new entry, from the free list if there is one
+    private int newSlot(int key, String value) {
+    	int slot = freeSlot;
+    	if(slot != NONE) {
+    		freeSlot = slotNext[slot];
+    	} else {
+    		if(slotsUsed == slotKey.length) {
+    			growSlots(Math.max(INITIAL_SIZE, slotKey.length * 2));
+    		}
+    		slot = slotsUsed++;
+    	}
+    	slotKey[slot] = key;
+    	slotValue[slot] = value;
+    	return slot;
+    }
+    
+    //puts a slot that is no longer in any chain on the free list
+    private void releaseSlot(int slot) {
+    	slotValue[slot] = null;
+    	slotNext[slot] = freeSlot;
+    	freeSlot = slot;
+    }
+    
+    //puts slot on the end of chain bucket of the heads and tails given
+    private void append(int[] heads, int[] tails, int bucket, int slot) {
+    	slotNext[slot] = NONE;
+    	if(heads[bucket] == NONE) {
+    		heads[bucket] = slot;
+    	} else {
+    		slotNext[tails[bucket]] = slot;
+    	}
+    	tails[bucket] = slot;
+    }
+    
+    //puts a new slot on the end of the chain its key belongs in right now:
+    //in the old table while its bucket there hasn't been migrated yet,
+    //otherwise in the current one
+    private void link(int slot) {
+    	int key = slotKey[slot];
+    	if(oldHead != null) {
+    		int oldIndex = ((A * key + B) % P) % oldHead.length;
+    		if(oldIndex >= migrateIndex) {
+    			append(oldHead, oldTail, oldIndex, slot);
+    			return;
+    		}
+    	}
+    	int index = hash(key);
+    	append(head, tail, index, slot);
+    	chainLength[index]++;
+    	sortedAdd(index, slot);
+    }
+    
+    //the slot of a valid key, or NONE. chains with a sorted copy are
+    //binary searched, the others are walked
+    private int findSlot(int key) {
+    	if(oldHead != null) {
+    		int oldIndex = ((A * key + B) % P) % oldHead.length;
+    		if(oldIndex >= migrateIndex) {
+    			//still in the old table, which has no sorted copies
+    			return scan(oldHead[oldIndex], key);
+    		}
+    	}
+    	int index = hash(key);
+    	int[] slots = sorted[index];
+    	if(slots != null) {
+    		int at = search(slots, chainLength[index], key);
+    		return at >= 0 ? slots[at] : NONE;
+    	}
+    	return scan(head[index], key);
+    }
+    
+    //walks a chain from slot until it finds key
+    private int scan(int slot, int key) {
+    	while(slot != NONE && slotKey[slot] != key) {
+    		slot = slotNext[slot];
+    	}
+    	return slot;
+    }
+    
+    //binary search of slots[0 .. count - 1] by key. the index of key, or
+    //-(where it would go) - 1 like Arrays.binarySearch
+    private int search(int[] slots, int count, int key) {
+    	int low = 0;
+    	int high = count - 1;
+    	while(low <= high) {
+    		int mid = (low + high) >>> 1;
+    		int k = slotKey[slots[mid]];
+    		if(k < key) {
+    			low = mid + 1;
+    		} else if(k > key) {
+    			high = mid - 1;
+    		} else {
+    			return mid;
+    		}
+    	}
+    	return -(low + 1);
+    }
+    
+    //keeps the sorted copy of chain index current after slot was added to
+    //the chain, and makes one once the chain gets longer than SORTED_ON
+    private void sortedAdd(int index, int slot) {
+    	int[] slots = sorted[index];
+    	int count = chainLength[index];
+    	if(slots == null) {
+    		if(count > SORTED_ON) {
+    			sorted[index] = sortedCopy(index);
+    		}
+    		return;
+    	}
+    	int at = -search(slots, count - 1, slotKey[slot]) - 1;
+    	if(count > slots.length) {
+    		slots = Arrays.copyOf(slots, slots.length * 2);
+    		sorted[index] = slots;
+    	}
+    	System.arraycopy(slots, at, slots, at + 1, count - 1 - at);
+    	slots[at] = slot;
+    }
+    
+    //keeps the sorted copy of chain index current after slot was removed
+    //from the chain, and drops it once the chain gets shorter than SORTED_OFF
+    private void sortedRemove(int index, int slot) {
+    	int[] slots = sorted[index];
+    	if(slots == null) {
+    		return;
+    	}
+    	int count = chainLength[index];
+    	if(count < SORTED_OFF) {
+    		sorted[index] = null;
+    		return;
+    	}
+    	int at = search(slots, count + 1, slotKey[slot]);
+    	System.arraycopy(slots, at + 1, slots, at, count - at);
+    }
+    
+    //the slots of chain index sorted by key, with room to grow. each one is
+    //sorted as key << 32 | slot, so a plain long sort does it
+    private long[] packed(int index) {
+    	long[] packed = new long[chainLength[index]];
+    	int n = 0;
+    	for(int slot = head[index]; slot != NONE; slot = slotNext[slot]) {
+    		packed[n++] = (long) slotKey[slot] << 32 | slot;
+    	}
+    	Arrays.sort(packed);
+    	return packed;
+    }
+    
+    private int[] sortedCopy(int index) {
+    	long[] packed = packed(index);
+    	int[] slots = new int[packed.length * 2];
+    	for(int i = 0; i < packed.length; i++) {
+    		slots[i] = (int) packed[i];
+    	}
+    	return slots;
+    }
+    
+    //starts the sorted copies over for a table that was just filled
+    private void sortLongChains() {
+    	sorted = new int[head.length][];
+    	for(int i = 0; i < head.length; i++) {
+    		if(chainLength[i] > SORTED_ON) {
+    			sorted[i] = sortedCopy(i);
+    		}
+    	}
+    }
+    
     //O(1) time complexity
     public int getSize() {
     	return this.size;
@@ -77,7 +374,80 @@ public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
     
     //O(1) time complexity
     public int getTableLength() {
-    	return table.length;
+    	if(dense != null) {
+    		return dense.length;
+    	}
+    	return head.length;
+    }
+    
+    //turns the direct-addressed table on or off, converting right away if needed.
+    //with it off the map always chains, at any size
+    public void setDenseMode(boolean enabled) {
+    	denseEnabled = enabled;
+    	if(!enabled && dense != null) {
+    		toChained();
+    	} else if(enabled && dense == null && size > DENSE_ON) {
+    		toDense();
+    	}
+    }
+    
+    //turns the value -> keys index on or off. turning it on builds it from
+    //the current entries in O(n), after that put and remove keep it current
+    public void setValueIndex(boolean enabled) {
+    	if(!enabled) {
+    		valueIndex = null;
+    		return;
+    	}
+    	if(valueIndex != null) {
+    		return;
+    	}
+    	valueIndex = new HashMap<>();
+    	for(Entry e : this) {
+    		indexAdd(e.key, e.value);
+    	}
+    }
+    
+    //records that key now maps to value
+    private void indexAdd(int key, String value) {
+    	IntBag keys = valueIndex.get(value);
+    	if(keys == null) {
+    		keys = new IntBag();
+    		valueIndex.put(value, keys);
+    	}
+    	keys.add(key);
+    }
+    
+    //records that key no longer maps to value
+    private void indexRemove(int key, String value) {
+    	IntBag keys = valueIndex.get(value);
+    	if(keys != null && keys.remove(key) && keys.size() == 0) {
+    		valueIndex.remove(value);
+    	}
+    }
+    
+    //turns incremental rehashing on or off. turning it off finishes any
+    //migration that is still going on
+    public void setIncrementalRehash(boolean enabled) {
+    	incremental = enabled;
+    	if(!enabled) {
+    		finishMigration();
+    	}
+    }
+    
+    //turns statistics on or off. turning them on starts every counter at
+    //0, turning them off drops them and unregisters their MBean
+    public void setStatsEnabled(boolean enabled) {
+    	if(enabled && stats == null) {
+    		stats = new HashTableStats(new StatsSource());
+    	} else if(!enabled && stats != null) {
+    		stats.unregister();
+    		stats = null;
+    	}
+    }
+    
+    //the statistics, or null while they are off
+    public HashTableStats getStats() {
+    	return stats;
     }
     
     //O(1) time complexity
@@ -94,27 +464,151 @@ public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
         if(value == null){
             throw new IllegalArgumentException("No null");
         }
-        //compute index using the hash function
-        int index = hash(key);
-        //initialize if index is empty
-        if(table[index] == null){
-        	table[index] = new LinkedList<>();
+        if(dense != null) {
+        	putDense(key, value);
+        	return;
+        }
+        migrateStep();
+        if(!putChained(key, value)) {
+        	return;
+        }
+        //check if switching to the direct-addressed table or resizing is needed
+        if(denseEnabled && size > DENSE_ON) {
+        	toDense();
+        } else if((double)size / head.length > RESIZE_THRESHOLD){
+            rehash();
         }
+    }
+    
+    //puts a valid key into the direct-addressed table
+    private void putDense(int key, String value) {
+    	//direct-addressed, no hashing or chain to walk
+    	String old = dense[key - MIN_KEY];
+    	if(old == null) {
+    		size++;
+    	}
+    	dense[key - MIN_KEY] = value;
+    	if(valueIndex != null) {
+    		if(old != null) {
+    			indexRemove(key, old);
+    		}
+    		indexAdd(key, value);
+    	}
+    }
+    
+    //puts a valid key into its chain, without checking if a resize is
+    //needed. returns true if the key is new, false if it was updated
+    private boolean putChained(int key, String value) {
         //search for an existing entry with the same key
-        for(Entry e : table[index]){
-        	if(e.key == key){
-        		//key exists, update the value
-        		e.value = value;
-        		return;
-            }
+        int slot = findSlot(key);
+        if(slot != NONE){
+        	//key exists, update the value
+        	if(valueIndex != null) {
+        		indexRemove(key, slotValue[slot]);
+        		indexAdd(key, value);
+        	}
+        	slotValue[slot] = value;
+        	return false;
         }
-        //key doesn't exist, add a new entry
-        table[index].add(new Entry(key, value));
+        //key doesn't exist, add a new entry to the end of its chain
+        link(newSlot(key, value));
         size++;
-        //check if resizing is needed
-        if((double)size / table.length > RESIZE_THRESHOLD){
-            rehash();
+        if(valueIndex != null) {
+        	indexAdd(key, value);
         }
+        return true;
+    }
+    
+    //puts keys[i] -> values[i] for every i, same as calling put in order.
+    //everything is checked first, so a bad key or value changes nothing.
+    //the table is sized once for the final size instead of going up the
+    //prime ladder, so the bucket layout can differ from separate puts
+    public void putAll(int[] keys, String[] values) {
+    	if(keys == null || values == null) {
+    		throw new IllegalArgumentException("No null");
+    	}
+    	if(keys.length != values.length) {
+    		throw new IllegalArgumentException("Need one value per key");
+    	}
+    	for(int i = 0; i < keys.length; i++) {
+    		if(!isValidKey(keys[i])) {
+    			throw new IllegalArgumentException("Key must be 4 digits long");
+    		}
+    		if(values[i] == null) {
+    			throw new IllegalArgumentException("No null");
+    		}
+    	}
+    	ensureCapacity((long) size + keys.length);
+    	if(dense != null) {
+    		for(int i = 0; i < keys.length; i++) {
+    			putDense(keys[i], values[i]);
+    		}
+    	} else {
+    		for(int i = 0; i < keys.length; i++) {
+    			putChained(keys[i], values[i]);
+    		}
+    	}
+    	afterPutAll();
+    }
+    
+    //puts every entry of other into this map, sized once like putAll.
+    //other can be either engine
+    public void putAll(IntStringMap other) {
+    	if(other == null) {
+    		throw new IllegalArgumentException("No null");
+    	}
+    	if(other == this) {
+    		return;
+    	}
+    	ensureCapacity((long) size + other.getSize());
+    	for(Entry e : other) {
+    		if(dense != null) {
+    			putDense(e.key, e.value);
+    		} else {
+    			putChained(e.key, e.value);
+    		}
+    	}
+    	afterPutAll();
+    }
+    
+    //sizes the table for expectedSize entries in total, and keeps it at
+    //least that big from now on. does nothing if it is already big enough.
+    //the map never holds more than KEY_RANGE entries, so that caps it
+    public void reserve(int expectedSize) {
+    	if(expectedSize < 0) {
+    		throw new IllegalArgumentException("Expected size can't be negative");
+    	}
+    	int entries = Math.min(expectedSize, KEY_RANGE);
+    	reservedIndex = Math.max(reservedIndex, primeIndexFor(entries, RESIZE_THRESHOLD));
+    	ensureCapacity(entries);
+    }
+    
+    //gets the table ready for total entries (at most KEY_RANGE of them):
+    //straight to the direct-addressed table if that is over DENSE_ON,
+    //otherwise one resize to the prime that holds them all
+    private void ensureCapacity(long total) {
+    	if(dense != null) {
+    		return;
+    	}
+    	finishMigration();
+    	total = Math.min(total, KEY_RANGE);
+    	if(denseEnabled && total > DENSE_ON) {
+    		toDense();
+    		return;
+    	}
+    	int wanted = primeIndexFor((int) total, RESIZE_THRESHOLD);
+    	if(wanted > primeIndex) {
+    		resize(wanted, false);
+    	}
+    	reserveSlots(total - size);
+    }
+    
+    //duplicate keys can leave a bulk load smaller than planned, so go back
+    //to chaining if the direct-addressed table isn't worth it
+    private void afterPutAll() {
+    	if(dense != null && size < DENSE_OFF) {
+    		toChained();
+    	}
     }
 
     
@@ -123,19 +617,23 @@ public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
         if(!isValidKey(key)){
             throw new IllegalArgumentException("Key must be 4 digits long");
         }
-        //compute index using the hash function
-        int index = hash(key);
-        //searching through bucket
-        if(table[index] != null){
-            for(Entry e : table[index]){
-                if(e.key == key){
-                    //found the entry, return its value
-                    return e.value;
-                }
-            }
+        String value = lookup(key);
+        if(stats != null) {
+        	stats.lookup(value != null);
         }
+        return value;
+    }
+    
+    //the value of a valid key, or null
+    private String lookup(int key) {
+        if(dense != null) {
+        	return dense[key - MIN_KEY];
+        }
+        migrateStep();
+        //find the entry through the hash function
+        int slot = findSlot(key);
         //key not found, return null
-        return null;
+        return slot == NONE ? null : slotValue[slot];
     }
     
     //checks first for valid key, to then check the specific key the 
@@ -144,18 +642,12 @@ public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
         if(!isValidKey(key)) {
             throw new IllegalArgumentException("Key must be 4 digits long");
         }
-        //compute index using the hash function
-        int index = hash(key);
-        //searching through bucket
-        if(table[index] != null) {
-            for(Entry e : table[index]) {
-                if(e.key == key) {
-                	//if key is found, then return true
-                    return true;
-                }
-            }
+        //values are never null, so a value means the key is there
+        boolean found = lookup(key) != null;
+        if(stats != null) {
+        	stats.lookup(found);
         }
-        return false;
+        return found;
     }
     
     public ArrayList<Integer> getValues(String target) {
@@ -163,12 +655,47 @@ public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
     	if(target == null) {
     		throw new IllegalArgumentException("No null");
     	}
+    	IntBag found = keysOf(target);
     	//creates an array list of integers that will hold indices
-    	ArrayList<Integer> keys = new ArrayList<Integer>();
-    	for(int i = 0; i < table.length; i++) {
-    		for(Entry e: table[i]) {
-    			if(e.value.equals(target)) {
-    				keys.add(e.key);
+    	ArrayList<Integer> keys = new ArrayList<Integer>(found.size());
+    	int[] items = found.toArray();
+    	for(int i = 0; i < items.length; i++) {
+    		keys.add(items[i]);
+    	}
+    	return keys;
+    }
+    
+    //same keys as getValues but as an int[] with no boxing. with the value
+    //index on this costs time proportional to the number of keys found
+    public int[] getKeysForValue(String target) {
+    	if(target == null) {
+    		throw new IllegalArgumentException("No null");
+    	}
+    	return keysOf(target).toArray();
+    }
+    
+    //keys mapped to target: straight from the value index when it is on,
+    //otherwise by scanning the table in bucket order
+    private IntBag keysOf(String target) {
+    	if(valueIndex != null) {
+    		IntBag keys = valueIndex.get(target);
+    		return keys == null ? new IntBag() : keys;
+    	}
+    	IntBag keys = new IntBag();
+    	if(dense != null) {
+    		for(int i = 0; i < dense.length; i++) {
+    			if(target.equals(dense[i])) {
+    				keys.add(i + MIN_KEY);
+    			}
+    		}
+    		return keys;
+    	}
+    	//a full scan costs as much as finishing the migration anyway
+    	finishMigration();
+    	for(int i = 0; i < head.length; i++) {
+    		for(int slot = head[i]; slot != NONE; slot = slotNext[slot]) {
+    			if(slotValue[slot].equals(target)) {
+    				keys.add(slotKey[slot]);
     			}
     		}
     	}
@@ -180,89 +707,396 @@ public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
     	if(!isValidKey(key)) {
     		throw new IllegalArgumentException("Key must be 4 digits long");
     	}
-    	//finds index from hash method
-    	int index = hash(key);
-    	//iterator to loop through
-    	Iterator<Entry> iter = table[index].iterator();
-    	while(iter.hasNext()) {
-    		//finds out if the key is equal
-    		Entry e = iter.next();
-    		if(e.key == key) {
-    			//calls iterator remove method if true
-    			iter.remove();
+    	if(dense != null) {
+    		if(dense[key - MIN_KEY] != null) {
+    			if(valueIndex != null) {
+    				indexRemove(key, dense[key - MIN_KEY]);
+    			}
+    			dense[key - MIN_KEY] = null;
     			size--;
-    			//decrease size and break
-    			break;
+    			//go back to the chains once the map is sparse again
+    			if(size < DENSE_OFF) {
+    				toChained();
+    			}
+    		}
+    		return;
+    	}
+    	migrateStep();
+    	//finds the entry from hash method, binary searched if it can be
+    	if(findSlot(key) == NONE) {
+    		return;
+    	}
+    	//then walks its chain for the slot in front of it to unlink it
+    	int[] heads = head;
+    	int[] tails = tail;
+    	int index = hash(key);
+    	boolean old = false;
+    	if(oldHead != null) {
+    		int oldIndex = ((A * key + B) % P) % oldHead.length;
+    		if(oldIndex >= migrateIndex) {
+    			heads = oldHead;
+    			tails = oldTail;
+    			index = oldIndex;
+    			old = true;
     		}
     	}
+    	int prev = NONE;
+    	int slot = heads[index];
+    	while(slotKey[slot] != key) {
+    		prev = slot;
+    		slot = slotNext[slot];
+    	}
+    	if(prev == NONE) {
+    		heads[index] = slotNext[slot];
+    	} else {
+    		slotNext[prev] = slotNext[slot];
+    	}
+    	if(tails[index] == slot) {
+    		tails[index] = prev;
+    	}
+    	if(!old) {
+    		chainLength[index]--;
+    		sortedRemove(index, slot);
+    	}
+    	String value = slotValue[slot];
+    	releaseSlot(slot);
+    	size--;
+    	if(valueIndex != null) {
+    		indexRemove(key, value);
+    	}
+    	//give memory back once the chains get short
+    	if(primeIndex > reservedIndex 
+    			&& (double)size / head.length < SHRINK_THRESHOLD) {
+    		//shrink to half the resize threshold so we don't grow
+    		//again right away, but not below what was reserved
+    		compact(Math.max(reservedIndex, 
+    				primeIndexFor(size, RESIZE_THRESHOLD / 2.0)));
+    	}
+    }
+    
+    //index of the smallest prime that keeps the average chain length at
+    //or under maxLoad for the given number of entries
+    private static int primeIndexFor(int entries, double maxLoad) {
+    	int i = 0;
+    	while(i < PRIMES.length - 1 && (double)entries / PRIMES[i] > maxLoad) {
+    		i++;
+    	}
+    	return i;
     }
 
     
-    @SuppressWarnings("unchecked")
+    //grows to the next prime
 	private void rehash() {
-    	if(PRIMES[primeIndex] == 397) {
+    	if(primeIndex == PRIMES.length - 1) {
     		return;
     	}
-    	primeIndex+=1;
+    	resize(primeIndex + 1);
+    }
+    
+    //moves every entry into a table of size PRIMES[newPrimeIndex], or with
+    //incremental rehashing on, starts moving them a few buckets at a time
+    private void resize(int newPrimeIndex) {
+    	resize(newPrimeIndex, incremental);
+    }
+    
+	private void resize(int newPrimeIndex, boolean incrementally) {
+    	//the last migration has to be done before the next one starts
+    	finishMigration();
+    	long start = stats == null ? 0 : System.nanoTime();
+    	primeIndex = newPrimeIndex;
     	int newSize = PRIMES[primeIndex];
-        LinkedList<Entry>[] newTable = 
-        		(LinkedList<Entry>[]) new LinkedList[newSize];
-        //rehash all existing entries and place them in the new table
-        for(int i = 0; i < table.length; i++) {
-            if(table[i] != null) {
-                //iterate through the linked list at index i
-                for(Entry e : table[i]) {
-                	int newIndex = ((A * e.key + B) % P) % newSize;
-                    if(newTable[newIndex] == null) {
-                        newTable[newIndex] = new LinkedList<>();
-                    }
-                    newTable[newIndex].add(e);
-                }
-            }
+    	int[] oldHeads = head;
+    	int[] oldTails = tail;
+    	newTable(newSize);
+        if(incrementally) {
+        	oldHead = oldHeads;
+        	oldTail = oldTails;
+        	migrateIndex = 0;
+        	sorted = new int[newSize][];
+        	if(stats != null) {
+        		//the buckets moved later add their own time
+        		stats.rehashed(start);
+        	}
+        	return;
+        }
+        //relink every entry onto the end of its new chain, old bucket by
+        //old bucket. the entries themselves don't move
+        for(int i = 0; i < oldHeads.length; i++) {
+        	int slot = oldHeads[i];
+        	while(slot != NONE) {
+        		int after = slotNext[slot];
+        		int newIndex = hash(slotKey[slot]);
+        		append(head, tail, newIndex, slot);
+        		chainLength[newIndex]++;
+        		slot = after;
+        	}
+        }
+        sortLongChains();
+        if(stats != null) {
+        	stats.rehashed(start);
         }
-        table = newTable;
+    }
+    
+    //shrinks to a table of size PRIMES[newPrimeIndex] and copies the
+    //entries into slot arrays just big enough for them, so the storage left
+    //behind by removed entries is given back too. always done in one go:
+    //every slot moves, so chains in an old table would point at nothing
+    private void compact(int newPrimeIndex) {
+    	finishMigration();
+    	long start = stats == null ? 0 : System.nanoTime();
+    	int[] oldHeads = head;
+    	int[] oldKeys = slotKey;
+    	String[] oldValues = slotValue;
+    	int[] oldNext = slotNext;
+    	primeIndex = newPrimeIndex;
+    	newTable(PRIMES[primeIndex]);
+    	newSlots(Math.max(INITIAL_SIZE, size));
+    	for(int i = 0; i < oldHeads.length; i++) {
+    		for(int from = oldHeads[i]; from != NONE; from = oldNext[from]) {
+    			int slot = newSlot(oldKeys[from], oldValues[from]);
+    			int newIndex = hash(oldKeys[from]);
+    			append(head, tail, newIndex, slot);
+    			chainLength[newIndex]++;
+    		}
+    	}
+    	sortLongChains();
+    	if(stats != null) {
+    		stats.rehashed(start);
+    	}
+    }
+    
+    //moves the next MIGRATE_STEP buckets if an incremental rehash is going on
+    private void migrateStep() {
+    	if(oldHead != null) {
+    		migrate(MIGRATE_STEP);
+    	}
+    }
+    
+    //moves everything that is left if an incremental rehash is going on
+    private void finishMigration() {
+    	if(oldHead != null) {
+    		migrate(oldHead.length);
+    	}
+    }
+    
+    //moves up to count buckets of the old table into the current one, in
+    //bucket order
+    private void migrate(int count) {
+    	long start = stats == null ? 0 : System.nanoTime();
+    	int end = Math.min(migrateIndex + count, oldHead.length);
+    	while(migrateIndex < end) {
+    		int slot = oldHead[migrateIndex];
+    		while(slot != NONE) {
+    			int after = slotNext[slot];
+    			int newIndex = hash(slotKey[slot]);
+    			append(head, tail, newIndex, slot);
+    			chainLength[newIndex]++;
+    			sortedAdd(newIndex, slot);
+    			slot = after;
+    		}
+    		oldHead[migrateIndex] = NONE;
+    		oldTail[migrateIndex] = NONE;
+    		migrateIndex++;
+    	}
+    	if(migrateIndex == oldHead.length) {
+    		oldHead = null;
+    		oldTail = null;
+    	}
+    	if(stats != null) {
+    		stats.rehashTime(start);
+    	}
+    }
+    
+    //moves every entry into the direct-addressed table and drops the chains
+    private void toDense() {
+    	finishMigration();
+    	long start = stats == null ? 0 : System.nanoTime();
+    	String[] newDense = new String[KEY_RANGE];
+    	for(int i = 0; i < head.length; i++) {
+    		for(int slot = head[i]; slot != NONE; slot = slotNext[slot]) {
+    			newDense[slotKey[slot] - MIN_KEY] = slotValue[slot];
+    		}
+    	}
+    	dense = newDense;
+    	head = null;
+    	tail = null;
+    	chainLength = null;
+    	sorted = null;
+    	slotKey = null;
+    	slotValue = null;
+    	slotNext = null;
+    	if(stats != null) {
+    		stats.rehashed(start);
+    	}
+    }
+    
+    //rebuilds the chains at the smallest prime that keeps the average chain
+    //length under RESIZE_THRESHOLD, then drops the direct-addressed table
+	private void toChained() {
+    	long start = stats == null ? 0 : System.nanoTime();
+    	primeIndex = Math.max(reservedIndex, primeIndexFor(size, RESIZE_THRESHOLD));
+    	newTable(PRIMES[primeIndex]);
+    	newSlots(Math.max(INITIAL_SIZE, size));
+    	for(int i = 0; i < dense.length; i++) {
+    		if(dense[i] != null) {
+    			int slot = newSlot(i + MIN_KEY, dense[i]);
+    			int newIndex = hash(i + MIN_KEY);
+    			append(head, tail, newIndex, slot);
+    			chainLength[newIndex]++;
+    		}
+    	}
+    	sortLongChains();
+    	dense = null;
+    	if(stats != null) {
+    		stats.rehashed(start);
+    	}
     }
     
     public String toString() {
     	StringBuilder log = new StringBuilder();
+    	if(dense != null) {
+    		//one line per slot, slot i holds key i + MIN_KEY
+    		for(int i = 0; i < dense.length; i++) {
+    			log.append(i).append(" -> ");
+    			if(dense[i] != null) {
+    				log.append("(").append(i + MIN_KEY).append(", ").
+    					append(dense[i]).append(") ");
+    			}
+    			log.append("\n");
+    		}
+    		return log.toString();
+    	}
+    	finishMigration();
     	//loops through table indices
-    	for(int i = 0; i < table.length; i++) {
+    	for(int i = 0; i < head.length; i++) {
     		//appends regardless if its empty or null
             log.append(i).append(" -> ");
-            if(table[i] != null && !table[i].isEmpty()) {
-                Iterator<Entry> iter = table[i].iterator();
-                while(iter.hasNext()) {
-                	Entry entry = iter.next();
-                    log.append("(").append(entry.key).append(", ").
-                    	append(entry.value).append(") ");
-                }
-                //creates new line
+            //walks the chain from its head
+            for(int slot = head[i]; slot != NONE; slot = slotNext[slot]) {
+                log.append("(").append(slotKey[slot]).append(", ").
+                	append(slotValue[slot]).append(") ");
             }
+            //creates new line
             log.append("\n");
     	}
     	return log.toString();
     }
 
+	//calls action with every key and value, in the same order as the
+	//iterator, without allocating anything
+	public void forEach(IntObjConsumer<? super String> action) {
+		if(action == null) {
+			throw new IllegalArgumentException("No null");
+		}
+		if(dense != null) {
+			for(int i = 0; i < dense.length; i++) {
+				if(dense[i] != null) {
+					action.accept(i + MIN_KEY, dense[i]);
+				}
+			}
+			return;
+		}
+		finishMigration();
+		for(int i = 0; i < head.length; i++) {
+			for(int slot = head[i]; slot != NONE; slot = slotNext[slot]) {
+				action.accept(slotKey[slot], slotValue[slot]);
+			}
+		}
+	}
+	
+	//a new cursor at the start of the map
+	public Cursor cursor() {
+		return new Cursor();
+	}
+	
+	/**
+	 * A reusable position in the map, for walking it without allocating.<br>
+	 * advance() moves to the next entry and returns false once there are no more, key() and
+	 * value() read the entry it is on, and reset() goes back to the start so the same cursor
+	 * can walk the map again. The order is the same as the iterator's. The map must not be
+	 * changed during a walk.<br>
+	 */
+	public final class Cursor implements IntStringMap.Cursor {
+		/** Bucket (or direct-addressed slot) to look at next */
+		private int bucket;
+		/** Slot to return next in the chain being walked, or NONE */
+		private int slot;
+		private int key;
+		/** Value of the current entry, null before the first advance and after the last */
+		private String value;
+		
+		private Cursor() {
+			reset();
+		}
+		
+		//back to before the first entry
+		public void reset() {
+			finishMigration();
+			bucket = 0;
+			slot = NONE;
+			value = null;
+		}
+		
+		//moves to the next entry, false if there isn't one
+		public boolean advance() {
+			if(dense != null) {
+				while(bucket < dense.length) {
+					String v = dense[bucket++];
+					if(v != null) {
+						key = bucket - 1 + MIN_KEY;
+						value = v;
+						return true;
+					}
+				}
+			} else {
+				while(slot == NONE && bucket < head.length) {
+					slot = head[bucket++];
+				}
+				if(slot != NONE) {
+					key = slotKey[slot];
+					value = slotValue[slot];
+					slot = slotNext[slot];
+					return true;
+				}
+			}
+			value = null;
+			return false;
+		}
+		
+		public int key() {
+			if(value == null) {
+				throw new NoSuchElementException("No current entry");
+			}
+			return key;
+		}
+		
+		public String value() {
+			if(value == null) {
+				throw new NoSuchElementException("No current entry");
+			}
+			return value;
+		}
+	}
+
 	@Override
 	public Iterator<Entry> iterator() {
+		if(dense != null) {
+			return denseIterator();
+		}
+		//walking every bucket costs as much as finishing the migration, and
+		//this way entries can't move while we walk
+		finishMigration();
 		return new Iterator<Entry>() {
 			int bucketIndex = 0;
-			Iterator<Entry> bIter = null;
-			//loops the linkedList iterator while making sure that the index
-			//of the table is still in bounds
+			int slot = NONE;
+			//moves to the head of the next non-empty bucket once the current
+			//chain runs out, while making sure that the index of the table
+			//is still in bounds
 			public boolean hasNext() {
-				while((bIter == null || !bIter.hasNext()) 
-						&& bucketIndex < table.length) {
-					//create a new bucket equal to the linked list at the index
-			        LinkedList<Entry> bucket = table[bucketIndex++];
-			        //next checks if the bucket isn't null or isn't empty
-			        if(bucket != null && !bucket.isEmpty()) {
-			            bIter = bucket.iterator();
-			        }
-			    }
-				//returns true or false based on if the iterator is null or has
-				//next
-			    return bIter != null && bIter.hasNext();
+				while(slot == NONE && bucketIndex < head.length) {
+					slot = head[bucketIndex++];
+				}
+			    return slot != NONE;
 			}
 			//calls hasNext
 			public Entry next() {
@@ -270,8 +1104,301 @@ public class ChainedHashMap implements Iterable<ChainedHashMap.Entry> {
 					throw new NoSuchElementException("No more elements");
 				}
 				//returns the current and moves to next
-				return bIter.next();
+				Entry e = new Entry(slotKey[slot], slotValue[slot]);
+				slot = slotNext[slot];
+				return e;
 			}
 		};
 	}
-}
+	
+	//walks the direct-addressed table in key order
+	private Iterator<Entry> denseIterator() {
+		return new Iterator<Entry>() {
+			int slot = 0;
+			//skips over empty slots
+			public boolean hasNext() {
+				while(slot < dense.length && dense[slot] == null) {
+					slot++;
+				}
+				return slot < dense.length;
+			}
+			public Entry next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException("No more elements");
+				}
+				Entry e = new Entry(slot + MIN_KEY, dense[slot]);
+				slot++;
+				return e;
+			}
+		};
+	}
+	
+	//entries in the iterator's order, split by bucket ranges. the map must
+	//not be changed while it is in use
+	@Override
+	public Spliterator<Entry> spliterator() {
+		return new EntrySpliterator(fullRange());
+	}
+	
+	public Stream<Entry> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	public Stream<Entry> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+	
+	//the keys in the iterator's order, without boxing. call parallel() on it
+	//to split it the same way as parallelStream
+	public IntStream keyStream() {
+		return StreamSupport.intStream(new KeySpliterator(fullRange()), false);
+	}
+	
+	private Range fullRange() {
+		if(dense != null) {
+			return new Range(0, dense.length, size);
+		}
+		//same as iterator, entries can't move while we walk
+		finishMigration();
+		return new Range(0, head.length, size);
+	}
+	
+	/**
+	 * Walks buckets [from, to) of the chains, or slots [from, to) of the direct-addressed
+	 * table, for the spliterators. trySplit hands out the first half of the buckets it has
+	 * not started on. The number of entries left is exact, counted from chainLength (or the
+	 * filled slots) the first time it is asked for.
+	 */
+	private final class Range {
+		/** Bucket (or direct-addressed slot) to look at next */
+		private int from;
+		private final int to;
+		/** Slot to return next in the chain being walked, or NONE */
+		private int slot = NONE;
+		/** Entries left, -1 until counted */
+		private long remaining;
+		private int key;
+		private String value;
+		
+		Range(int from, int to, long remaining) {
+			this.from = from;
+			this.to = to;
+			this.remaining = remaining;
+		}
+		
+		//moves to the next entry, false if there isn't one
+		boolean advance() {
+			if(dense != null) {
+				while(from < to) {
+					String v = dense[from++];
+					if(v != null) {
+						key = from - 1 + MIN_KEY;
+						value = v;
+						return taken();
+					}
+				}
+				return false;
+			}
+			while(slot == NONE && from < to) {
+				slot = head[from++];
+			}
+			if(slot == NONE) {
+				return false;
+			}
+			key = slotKey[slot];
+			value = slotValue[slot];
+			slot = slotNext[slot];
+			return taken();
+		}
+		
+		private boolean taken() {
+			if(remaining > 0) {
+				remaining--;
+			}
+			return true;
+		}
+		
+		//the first half of the buckets left, or null if there is nothing
+		//worth splitting
+		Range split() {
+			if(slot != NONE || to - from < 2) {
+				return null;
+			}
+			int mid = (from + to) >>> 1;
+			Range prefix = new Range(from, mid, -1);
+			from = mid;
+			remaining = -1;
+			return prefix;
+		}
+		
+		long size() {
+			if(remaining < 0) {
+				long n = 0;
+				if(dense != null) {
+					for(int i = from; i < to; i++) {
+						if(dense[i] != null) {
+							n++;
+						}
+					}
+				} else {
+					for(int s = slot; s != NONE; s = slotNext[s]) {
+						n++;
+					}
+					for(int i = from; i < to; i++) {
+						n += chainLength[i];
+					}
+				}
+				remaining = n;
+			}
+			return remaining;
+		}
+	}
+	
+	private final class EntrySpliterator implements Spliterator<Entry> {
+		private final Range range;
+		
+		EntrySpliterator(Range range) {
+			this.range = range;
+		}
+		
+		public boolean tryAdvance(Consumer<? super Entry> action) {
+			if(!range.advance()) {
+				return false;
+			}
+			action.accept(new Entry(range.key, range.value));
+			return true;
+		}
+		
+		public void forEachRemaining(Consumer<? super Entry> action) {
+			while(range.advance()) {
+				action.accept(new Entry(range.key, range.value));
+			}
+		}
+		
+		public Spliterator<Entry> trySplit() {
+			Range prefix = range.split();
+			return prefix == null ? null : new EntrySpliterator(prefix);
+		}
+		
+		public long estimateSize() {
+			return range.size();
+		}
+		
+		public int characteristics() {
+			return CHARACTERISTICS;
+		}
+	}
+	
+	private final class KeySpliterator implements Spliterator.OfInt {
+		private final Range range;
+		
+		KeySpliterator(Range range) {
+			this.range = range;
+		}
+		
+		public boolean tryAdvance(IntConsumer action) {
+			if(!range.advance()) {
+				return false;
+			}
+			action.accept(range.key);
+			return true;
+		}
+		
+		public void forEachRemaining(IntConsumer action) {
+			while(range.advance()) {
+				action.accept(range.key);
+			}
+		}
+		
+		public Spliterator.OfInt trySplit() {
+			Range prefix = range.split();
+			return prefix == null ? null : new KeySpliterator(prefix);
+		}
+		
+		public long estimateSize() {
+			return range.size();
+		}
+		
+		public int characteristics() {
+			return CHARACTERISTICS;
+		}
+	}
+	
+	//what the stats read from the map. works on the fields as they are
+	//right now and never moves entries, so reading it changes nothing.
+	//JMX reads from another thread, and a switch to or from the
+	//direct-addressed table nulls arrays, so every array is read into a
+	//local once and checked before it is used
+	private class StatsSource implements HashTableStats.Source {
+		public int size() {
+			return size;
+		}
+		public int tableLength() {
+			String[] d = dense;
+			if(d != null) {
+				return d.length;
+			}
+			int[] h = head;
+			return h != null ? h.length : 0;
+		}
+		public int tombstones() {
+			return 0;
+		}
+		public int[] chainLengthHistogram() {
+			return histogram(false);
+		}
+		public int[] probeLengthHistogram() {
+			return histogram(true);
+		}
+		
+		//chain lengths, or with probes the number of entries a get looks at
+		//to find each key. buckets not yet migrated count in the old table
+		private int[] histogram(boolean probes) {
+			int[] counts = new int[2];
+			String[] d = dense;
+			if(d != null) {
+				//every key is found in its own slot
+				for(String value : d) {
+					if(value != null) {
+						counts[1]++;
+					} else if(!probes) {
+						counts[0]++;
+					}
+				}
+				return HashTableStats.trim(counts);
+			}
+			int[] heads = head;
+			int[] next = slotNext;
+			if(heads == null || next == null) {
+				//switched to the direct-addressed table while we looked
+				return HashTableStats.trim(counts);
+			}
+			counts = addChains(heads, next, 0, counts, probes);
+			int[] old = oldHead;
+			if(old != null) {
+				counts = addChains(old, next, migrateIndex, counts, probes);
+			}
+			return HashTableStats.trim(counts);
+		}
+		
+		//a chain changed under us can point past the slots we read or loop,
+		//so a walk stops at the end of next or after next.length steps
+		private int[] addChains(int[] heads, int[] next, int from, int[] counts, boolean probes) {
+			for(int i = from; i < heads.length; i++) {
+				int length = 0;
+				for(int slot = heads[i]; slot >= 0 && slot < next.length
+						&& length < next.length; slot = next[slot]) {
+					length++;
+				}
+				if(!probes) {
+					counts = HashTableStats.increment(counts, length, 1);
+				} else {
+					for(int p = 1; p <= length; p++) {
+						counts = HashTableStats.increment(counts, p, 1);
+					}
+				}
+			}
+			return counts;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,284 @@
+package systemImp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe version of ChainedHashMap using lock striping.<br>
+ *
+ * - Same keys, values, hash function and exceptions as ChainedHashMap.<br>
+ * - The map is split into SEGMENTS segments, each with its own lock and its own chained table.<br>
+ * - Writers (put, remove) only lock the one segment the key hashes to.<br>
+ * - Readers (get, containsKey) never lock: chain nodes are immutable except for their volatile value,
+ * and writers publish changes by replacing the bucket head.<br>
+ * - Each segment rehashes (and shrinks) on its own, so a resize never stops the other segments.<br>
+ * - The size is a LongAdder, so put and remove don't fight over one counter.<br>
+ * - getValues and iterator are weakly consistent: they see every entry that was there for the
+ * whole call, and may or may not see changes made while they run.<br>
+ */
+public class ConcurrentChainedHashMap implements Iterable<ChainedHashMap.Entry> {
+
+    /** A large prime number for hashing */
+    private static final int P = 104729;
+    /** Large prime multiplier for hashing */
+    private static final int A = 2347;
+    /** Large prime offset for hashing */
+    private static final int B = 7919;
+
+    /** Number of segments (and locks), must be a power of two */
+    private static final int SEGMENTS = 16;
+    /** Threshold for rehashing: when a segment's avg chain length exceeds this, it rehashes */
+    private static final int RESIZE_THRESHOLD = 3;
+    /** Threshold for shrinking: when a segment's avg chain length drops below this, it shrinks */
+    private static final double SHRINK_THRESHOLD = RESIZE_THRESHOLD / 4.0;
+    /** Prime sizes for resizing */
+    private static final int[] PRIMES = Primes.LADDER;
+
+    /** The segments, picked by the low bits of the hash */
+    private final Segment[] segments;
+    /** The number of key-value pairs stored */
+    private final LongAdder size;
+
+    /**
+     * A chain node. Only value can change, everything else is fixed once
+     * the node is published, so readers can walk a chain without locking.
+     */
+    private static final class Node {
+        final int key;
+        volatile String value;
+        final Node next;
+
+        Node(int key, String value, Node next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * One stripe of the map: a chained table guarded by its own lock.
+     * table is volatile and its buckets are read with volatile semantics,
+     * so readers always see fully built chains.
+     */
+    private static final class Segment extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        volatile AtomicReferenceArray<Node> table;
+        /** entries in this segment, only touched while holding the lock */
+        int count;
+        /** the index of the current prime in PRIMES */
+        int primeIndex;
+
+        Segment() {
+            table = new AtomicReferenceArray<>(PRIMES[0]);
+        }
+    }
+
+    //instantiates ConcurrentChainedHashMap object
+    public ConcurrentChainedHashMap() {
+        segments = new Segment[SEGMENTS];
+        for(int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        size = new LongAdder();
+    }
+
+    //private method that calculates the hash, before picking a segment
+    private static int hash(int key) {
+        return (A * key + B) % P;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    //bucket inside a segment, from the bits not used to pick the segment
+    private static int bucket(int hash, int length) {
+        return (hash / SEGMENTS) % length;
+    }
+
+    //O(1) time complexity, a sum over the LongAdder cells
+    public int getSize() {
+        return size.intValue();
+    }
+
+    private boolean isValidKey(int key) {
+        return key <= 9999 && key >= 1000;
+    }
+
+    public void put(int key, String value) {
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        if(value == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        int h = hash(key);
+        Segment seg = segmentFor(h);
+        seg.lock();
+        try {
+            AtomicReferenceArray<Node> tab = seg.table;
+            int index = bucket(h, tab.length());
+            Node head = tab.get(index);
+            for(Node n = head; n != null; n = n.next) {
+                if(n.key == key) {
+                    //key exists, update the value
+                    n.value = value;
+                    return;
+                }
+            }
+            //key doesn't exist, publish a new head
+            tab.set(index, new Node(key, value, head));
+            seg.count++;
+            size.increment();
+            if((double) seg.count / tab.length() > RESIZE_THRESHOLD
+                    && seg.primeIndex < PRIMES.length - 1) {
+                resize(seg, seg.primeIndex + 1);
+            }
+        } finally {
+            seg.unlock();
+        }
+    }
+
+    //never blocks, even while the segment is being written or rehashed
+    public String get(int key) {
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        Node n = find(key);
+        return n == null ? null : n.value;
+    }
+
+    //never blocks, even while the segment is being written or rehashed
+    public boolean containsKey(int key) {
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        return find(key) != null;
+    }
+
+    private Node find(int key) {
+        int h = hash(key);
+        AtomicReferenceArray<Node> tab = segmentFor(h).table;
+        for(Node n = tab.get(bucket(h, tab.length())); n != null; n = n.next) {
+            if(n.key == key) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    public ArrayList<Integer> getValues(String target) {
+        if(target == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for(Segment seg : segments) {
+            AtomicReferenceArray<Node> tab = seg.table;
+            for(int i = 0; i < tab.length(); i++) {
+                for(Node n = tab.get(i); n != null; n = n.next) {
+                    if(target.equals(n.value)) {
+                        keys.add(n.key);
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    public void remove(int key) {
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        int h = hash(key);
+        Segment seg = segmentFor(h);
+        seg.lock();
+        try {
+            AtomicReferenceArray<Node> tab = seg.table;
+            int index = bucket(h, tab.length());
+            Node head = tab.get(index);
+            Node target = head;
+            while(target != null && target.key != key) {
+                target = target.next;
+            }
+            if(target == null) {
+                return;
+            }
+            //nodes are immutable, so copy the ones in front of the
+            //removed node onto its tail and publish the new chain
+            Node newHead = target.next;
+            for(Node n = head; n != target; n = n.next) {
+                newHead = new Node(n.key, n.value, newHead);
+            }
+            tab.set(index, newHead);
+            seg.count--;
+            size.decrement();
+            if(seg.primeIndex > 0
+                    && (double) seg.count / tab.length() < SHRINK_THRESHOLD) {
+                int shrinkTo = 0;
+                while((double) seg.count / PRIMES[shrinkTo] > RESIZE_THRESHOLD / 2.0) {
+                    shrinkTo++;
+                }
+                resize(seg, shrinkTo);
+            }
+        } finally {
+            seg.unlock();
+        }
+    }
+
+    //rebuilds one segment's table at PRIMES[newPrimeIndex], called with the
+    //segment's lock held. readers keep using the old table until the new
+    //one is published, the other segments are not touched
+    private static void resize(Segment seg, int newPrimeIndex) {
+        AtomicReferenceArray<Node> oldTable = seg.table;
+        int newSize = PRIMES[newPrimeIndex];
+        AtomicReferenceArray<Node> newTable = new AtomicReferenceArray<>(newSize);
+        for(int i = 0; i < oldTable.length(); i++) {
+            for(Node n = oldTable.get(i); n != null; n = n.next) {
+                int newIndex = bucket(hash(n.key), newSize);
+                newTable.set(newIndex, new Node(n.key, n.value, newTable.get(newIndex)));
+            }
+        }
+        seg.primeIndex = newPrimeIndex;
+        seg.table = newTable;
+    }
+
+    @Override
+    public Iterator<ChainedHashMap.Entry> iterator() {
+        return new Iterator<ChainedHashMap.Entry>() {
+            int segmentIndex = 0;
+            AtomicReferenceArray<Node> tab = segments[0].table;
+            int bucketIndex = 0;
+            Node current = null;
+
+            //moves to the next node, going to the next bucket or segment
+            //when the current chain runs out
+            public boolean hasNext() {
+                while(current == null) {
+                    if(bucketIndex < tab.length()) {
+                        current = tab.get(bucketIndex++);
+                    } else if(segmentIndex < SEGMENTS - 1) {
+                        tab = segments[++segmentIndex].table;
+                        bucketIndex = 0;
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            public ChainedHashMap.Entry next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException("No more elements");
+                }
+                Node n = current;
+                current = n.next;
+                return new ChainedHashMap.Entry(n.key, n.value);
+            }
+        };
+    }
+}
@@ -0,0 +1,509 @@
+package systemImp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe version of MyHashSet.<br>
+ *
+ * - Same key rules, hash code (base 19) and exceptions as MyHashSet.<br>
+ * - Open addressing with linear probing over an AtomicReferenceArray. Lock-free: every write is a
+ * compareAndSet and no thread ever waits for another.<br>
+ * - remove turns a key into a TOMBSTONE with one compareAndSet.<br>
+ * - add reserves the first TOMBSTONE on the key's probe path, or the empty slot at its end, then reads the
+ * path again before the key counts. Two adds of the same key that both reserve a slot see each other on
+ * that second read: the one nearer the start of the path wins, the other turns back into a tombstone. An
+ * add that finds the other one unfinished settles it for it instead of waiting.<br>
+ * - A resize that is mostly tombstones rebuilds at the same size instead of growing.<br>
+ * - Resizing is cooperative: the thread that crosses the threshold links a new table, and every thread
+ * that adds or removes during the resize claims chunks of slots and copies them over. Once every chunk
+ * is claimed, writers copy what is left themselves and only then write to the new table, so a thread
+ * that stalls mid-chunk holds nobody up.<br>
+ * - contains never writes and never waits: it reads each slot once and follows the link to the
+ * new table when the key isn't in the old one.<br>
+ */
+public class ConcurrentMyHashSet {
+
+    /** A removed key, reused by the next add whose probe path reaches it */
+    private static final Object TOMBSTONE = new Object();
+    /** A key or tombstone slot that has been copied into the next table */
+    private static final Object MOVED = new Object();
+    /** An empty slot that has been copied into the next table, still ends a probe */
+    private static final Object MOVED_EMPTY = new Object();
+    /** Number of slots a thread claims at a time while migrating */
+    private static final int CHUNK = 64;
+    /** Prime sizes for resizing */
+    private static final int[] PRIMES = Primes.LADDER;
+    /** What tryAdd found */
+    private static final int ADDED = 0;
+    private static final int PRESENT = 1;
+    private static final int RETRY = 2;
+
+    /** A key that is being copied into the next table, still counts as present */
+    private static final class Frozen {
+        final String key;
+        /** what is put in the next table while the copy is going on */
+        final Copy copy = new Copy(this);
+        /** slot of the next table the copy went to, -1 until one is picked */
+        final AtomicInteger target = new AtomicInteger(-1);
+
+        Frozen(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A key on its way into a table from the one before it. Only the Copy in the slot its Frozen
+     * picked counts as the key, any other is left over from a thread that lost the race to place it
+     */
+    private static final class Copy {
+        final Frozen of;
+
+        Copy(Frozen of) {
+            this.of = of;
+        }
+    }
+
+    /** An add's claim on a slot. It turns into the key once it is WON, and back into a tombstone if LOST */
+    private static final class Reservation {
+        static final int PENDING = 0;
+        static final int WON = 1;
+        static final int LOST = 2;
+
+        final String key;
+        final int hash;
+        final AtomicInteger state = new AtomicInteger(PENDING);
+
+        Reservation(String key, int hash) {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+
+    /** One generation of the table, plus what is needed to migrate out of it */
+    private static final class Table {
+        final AtomicReferenceArray<Object> slots;
+        /** slots ever taken, by a key, a reservation or a copy */
+        final AtomicInteger used = new AtomicInteger();
+        /** the table we are migrating into, null until a resize starts */
+        final AtomicReference<Table> next = new AtomicReference<>();
+        /** start of the next chunk nobody has claimed yet */
+        final AtomicInteger claimIndex = new AtomicInteger();
+        /** number of slots already copied */
+        final AtomicInteger migrated = new AtomicInteger();
+
+        Table(int length) {
+            slots = new AtomicReferenceArray<>(length);
+        }
+    }
+
+    private final AtomicReference<Table> current;   // The table being migrated out of, or the only one
+    private final LongAdder size;                    // The current number of elements in the set
+    private volatile double loadFactorThreshold;     // The threshold at which to rehash the table
+
+    public ConcurrentMyHashSet() {
+        current = new AtomicReference<>(new Table(PRIMES[0]));
+        size = new LongAdder();
+        loadFactorThreshold = 0.75;
+    }
+
+    public void setLoadFactorThreshold(double threshold) {
+        //same predefined values as MyHashSet
+        double[] allowed = {0.45, 0.60, 0.75, 0.85};
+        for(double value : allowed) {
+            if(Math.abs(value - threshold) < 0.00001) {
+                this.loadFactorThreshold = value;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Not a predefined threshold value");
+    }
+
+    public double getLoadFactor() {
+        return size.sum() / (double) current.get().slots.length();
+    }
+
+    public int size() {
+        return size.intValue();
+    }
+
+    private boolean isValidKey(String key) {
+        if(key == null || key.length() > 5 || key.length() <= 0) {
+            return false;
+        }
+        for(int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if(c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int myHashCode(String key) {
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Invalid Key");
+        }
+        return hashOf(key);
+    }
+
+    //the MyHashCode formula, for keys that are already known to be valid
+    private static int hashOf(String key) {
+        int prime = 19;
+        int hash = (int) key.charAt(0);
+        for(int i = 1; i < key.length(); i++) {
+            hash = (hash * prime) + (int) key.charAt(i);
+        }
+        return hash;
+    }
+
+    //the key a slot of t stands for, or null if it holds none. a Copy
+    //only counts in the slot its Frozen picked, and a Reservation once WON
+    private static String keyAt(Object v, int index) {
+        if(v instanceof String) {
+            return (String) v;
+        }
+        if(v instanceof Frozen) {
+            return ((Frozen) v).key;
+        }
+        if(v instanceof Copy) {
+            Frozen f = ((Copy) v).of;
+            return f.target.get() == index ? f.key : null;
+        }
+        if(v instanceof Reservation) {
+            Reservation r = (Reservation) v;
+            return r.state.get() == Reservation.WON ? r.key : null;
+        }
+        return null;
+    }
+
+    //never blocks and never writes. a key that isn't in a table being
+    //migrated may already be in the next one, so we look there too
+    public boolean contains(String key) {
+        int h = myHashCode(key);
+        Table t = current.get();
+        while(t != null) {
+            int len = t.slots.length();
+            if(t.migrated.get() == len) {
+                //everything was copied, skip straight to the next table
+                t = t.next.get();
+                continue;
+            }
+            int index = h % len;
+            for(int probes = 0; probes < len; probes++) {
+                Object v = t.slots.get(index);
+                if(v == null || v == MOVED_EMPTY) {
+                    break;
+                }
+                if(key.equals(keyAt(v, index))) {
+                    return true;
+                }
+                index = (index + 1) % len;
+            }
+            //read after the scan, so an add that went to the next table
+            //before we finished here is seen
+            t = t.next.get();
+        }
+        return false;
+    }
+
+    public boolean containsAll(String[] keys) {
+        if(keys == null) {
+            return false;
+        }
+        for(String key : keys) {
+            if(!isValidKey(key) || !contains(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //returns true if the key was added, false if it was already there.
+    //only ever adds to a table nobody is migrating out of, and finishes
+    //the migration itself rather than wait for it
+    public boolean add(String key) {
+        int h = myHashCode(key);
+        while(true) {
+            Table t = current.get();
+            if(t.next.get() != null) {
+                finishResize(t);
+                continue;
+            }
+            int result = tryAdd(t, key, h);
+            if(result != RETRY) {
+                return result == ADDED;
+            }
+        }
+    }
+
+    //one pass over the key's probe path in t to find where it goes: the
+    //first tombstone on the path, or the empty slot at its end. the slot is
+    //reserved with a compareAndSet and the key only counts as added once
+    //settle has checked the whole path again
+    private int tryAdd(Table t, String key, int h) {
+        int len = t.slots.length();
+        int index = h % len;
+        int tombstone = -1;
+        int empty = -1;
+        for(int probes = 0; probes < len; probes++) {
+            Object v = t.slots.get(index);
+            if(v == null) {
+                empty = index;
+                break;
+            }
+            if(v == MOVED || v == MOVED_EMPTY || v instanceof Frozen) {
+                //a resize started after we looked
+                return RETRY;
+            }
+            if(v == TOMBSTONE) {
+                if(tombstone < 0) {
+                    tombstone = index;
+                }
+            } else if(key.equals(keyAt(v, index))) {
+                return PRESENT;
+            }
+            index = (index + 1) % len;
+        }
+        Reservation r = new Reservation(key, h);
+        int at = tombstone >= 0 ? tombstone : empty;
+        if(at < 0) {
+            //no free slot in the whole table
+            startResize(t);
+            return RETRY;
+        }
+        if(!t.slots.compareAndSet(at, at == empty ? null : TOMBSTONE, r)) {
+            //somebody took the slot, or the copy got to it
+            return RETRY;
+        }
+        boolean full = at == empty && t.used.incrementAndGet() > loadFactorThreshold * len;
+        int state = settle(t, r, at);
+        if(state != Reservation.WON && !r.state.compareAndSet(Reservation.PENDING, Reservation.LOST)) {
+            //settled by somebody else while a resize got in our way
+            state = r.state.get();
+        }
+        if(state == Reservation.WON) {
+            //a remove or the migration may have taken it over already
+            t.slots.compareAndSet(at, r, key);
+        } else {
+            t.slots.compareAndSet(at, r, TOMBSTONE);
+        }
+        if(full) {
+            startResize(t);
+        }
+        //the next pass sees the key if that is why we lost
+        return state == Reservation.WON ? ADDED : RETRY;
+    }
+
+    //decides whether r, sitting in slot at of t, wins. reads the key's
+    //whole probe path again, all of it after r was placed: r loses if the
+    //key is live anywhere, kills reservations of the key further along,
+    //and settles the ones before it first since those win over r. returns
+    //r's state, or -1 if a resize got in the way and r is still PENDING
+    private int settle(Table t, Reservation r, int at) {
+        int len = t.slots.length();
+        int index = r.hash % len;
+        boolean before = true;
+        for(int probes = 0; probes < len && r.state.get() == Reservation.PENDING; probes++) {
+            if(index == at) {
+                before = false;
+            } else {
+                Object v = t.slots.get(index);
+                if(v == null) {
+                    break;
+                }
+                if(v == MOVED || v == MOVED_EMPTY || v instanceof Frozen) {
+                    return r.state.get() == Reservation.PENDING ? -1 : r.state.get();
+                }
+                if(r.key.equals(keyAt(v, index))) {
+                    r.state.compareAndSet(Reservation.PENDING, Reservation.LOST);
+                } else if(v instanceof Reservation && r.key.equals(((Reservation) v).key)) {
+                    Reservation other = (Reservation) v;
+                    if(before) {
+                        if(settle(t, other, index) < 0) {
+                            return r.state.get() == Reservation.PENDING ? -1 : r.state.get();
+                        }
+                    } else {
+                        other.state.compareAndSet(Reservation.PENDING, Reservation.LOST);
+                    }
+                    if(other.state.get() == Reservation.WON) {
+                        r.state.compareAndSet(Reservation.PENDING, Reservation.LOST);
+                    }
+                }
+            }
+            index = (index + 1) % len;
+        }
+        if(r.state.compareAndSet(Reservation.PENDING, Reservation.WON)) {
+            size.increment();
+        }
+        return r.state.get();
+    }
+
+    //returns true if the key was removed, false if it wasn't there
+    public boolean remove(String key) {
+        int h = myHashCode(key);
+        while(true) {
+            Table t = current.get();
+            if(t.next.get() != null) {
+                finishResize(t);
+                continue;
+            }
+            int len = t.slots.length();
+            int index = h % len;
+            int probes = 0;
+            boolean retry = false;
+            while(probes < len) {
+                Object v = t.slots.get(index);
+                if(v == null) {
+                    return false;
+                }
+                if(v == MOVED || v == MOVED_EMPTY || v instanceof Frozen) {
+                    //a resize started, look again in the next table
+                    retry = true;
+                    break;
+                }
+                if(key.equals(keyAt(v, index))) {
+                    if(t.slots.compareAndSet(index, v, TOMBSTONE)) {
+                        size.decrement();
+                        return true;
+                    }
+                    //lost to another remove, the add publishing it or the
+                    //migration, look again
+                    continue;
+                }
+                index = (index + 1) % len;
+                probes++;
+            }
+            if(!retry) {
+                return false;
+            }
+        }
+    }
+
+    //links a new table and helps copy into it. a table that is mostly
+    //tombstones is rebuilt at the same size, otherwise it is sized for the
+    //live keys with room for the set to double before the next resize
+    private void startResize(Table t) {
+        if(current.get() != t) {
+            return;
+        }
+        int len = t.slots.length();
+        long live = Math.max(1, size.sum());
+        int newLength;
+        if(t.used.get() - live > live) {
+            newLength = len;
+        } else {
+            int wanted = (int) Math.min(Integer.MAX_VALUE / 2, 2 * live / loadFactorThreshold + 1);
+            newLength = PRIMES[Primes.indexFor(wanted)];
+        }
+        t.next.compareAndSet(null, new Table(newLength));
+        helpResize(t);
+    }
+
+    //claims chunks of t and copies them until none are left. whoever copies
+    //the last one makes the next table current. never waits for the others
+    private void helpResize(Table t) {
+        Table next = t.next.get();
+        int len = t.slots.length();
+        while(true) {
+            int start = t.claimIndex.getAndAdd(CHUNK);
+            if(start >= len) {
+                return;
+            }
+            int end = Math.min(start + CHUNK, len);
+            for(int i = start; i < end; i++) {
+                migrate(t, next, i);
+            }
+            if(t.migrated.addAndGet(end - start) == len) {
+                current.compareAndSet(t, next);
+            }
+        }
+    }
+
+    //for a writer that finds t still being migrated. once every chunk is
+    //claimed it copies whatever is left itself, so a thread that stalls
+    //holding a chunk can't hold up anybody else
+    private void finishResize(Table t) {
+        helpResize(t);
+        if(current.get() != t) {
+            return;
+        }
+        Table next = t.next.get();
+        for(int i = 0; i < t.slots.length(); i++) {
+            migrate(t, next, i);
+        }
+        current.compareAndSet(t, next);
+    }
+
+    //copies one slot. any number of threads can get here for the same
+    //slot, the compareAndSets make sure only one copy of the key counts
+    private static void migrate(Table from, Table to, int index) {
+        while(true) {
+            Object v = from.slots.get(index);
+            if(v == MOVED || v == MOVED_EMPTY) {
+                return;
+            }
+            if(v instanceof Frozen) {
+                //frozen by somebody else, help them finish
+                copy((Frozen) v, to);
+                from.slots.compareAndSet(index, v, MOVED);
+            } else if(v == null) {
+                if(from.slots.compareAndSet(index, null, MOVED_EMPTY)) {
+                    return;
+                }
+            } else if(v == TOMBSTONE) {
+                if(from.slots.compareAndSet(index, TOMBSTONE, MOVED)) {
+                    return;
+                }
+            } else if(v instanceof Reservation) {
+                //an add that hasn't won yet never will, it tries again in
+                //the next table
+                Reservation r = (Reservation) v;
+                r.state.compareAndSet(Reservation.PENDING, Reservation.LOST);
+                Object next = r.state.get() == Reservation.WON ? new Frozen(r.key) : MOVED;
+                from.slots.compareAndSet(index, v, next);
+            } else if(v instanceof Copy) {
+                //left over from the resize before, finished in place or dropped
+                Frozen f = ((Copy) v).of;
+                from.slots.compareAndSet(index, v, f.target.get() == index ? f.key : MOVED);
+            } else {
+                //removes now have to look in the next table, lookups still see it
+                from.slots.compareAndSet(index, v, new Frozen((String) v));
+            }
+        }
+    }
+
+    //puts a frozen key into the next table exactly once, however many
+    //threads copy it. each places f's Copy in the first empty slot on the
+    //key's path, the first slot recorded in f.target is the one that counts
+    //and the others are turned into tombstones
+    private static void copy(Frozen f, Table t) {
+        int len = t.slots.length();
+        int index = hashOf(f.key) % len;
+        for(int probes = 0; f.target.get() < 0 && probes < len; ) {
+            Object v = t.slots.get(index);
+            if(v == null) {
+                if(t.slots.compareAndSet(index, null, f.copy)) {
+                    t.used.incrementAndGet();
+                    if(!f.target.compareAndSet(-1, index) && f.target.get() != index) {
+                        t.slots.compareAndSet(index, f.copy, TOMBSTONE);
+                    }
+                }
+                //look at the same slot again
+            } else if(v == f.copy) {
+                f.target.compareAndSet(-1, index);
+            } else {
+                index = (index + 1) % len;
+                probes++;
+            }
+        }
+        //a Copy that was already turned into the key, or removed since,
+        //is left alone
+        int target = f.target.get();
+        if(target >= 0) {
+            t.slots.compareAndSet(target, f.copy, f.key);
+        }
+    }
+}
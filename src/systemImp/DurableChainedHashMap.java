@@ -0,0 +1,569 @@
+package systemImp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A ChainedHashMap that survives crashes by logging every change before it returns.<br>
+ *
+ * - Everything lives in one directory: snapshot-N.bin (a MapSnapshot) and the logs wal-M.log. A snapshot
+ * holds every change from the logs numbered below N, so recovery loads the newest snapshot and replays
+ * the logs from N up, oldest first.<br>
+ * - Each put or remove is one binary record: payload length, op, key as a short, the UTF-8 value
+ * (puts only), then a CRC32 of the payload. A crash can only tear the end of the newest log, so replay
+ * cuts that log at its first torn or corrupt record. A bad record in any older log fails the open with an
+ * IOException instead, since the records after it were acknowledged.<br>
+ * - Durability picks when records reach the disk: NONE leaves it to the OS, BATCHED forces everything
+ * appended since the last commit once every BATCH_MILLIS (group commit, so many changes share one force),
+ * PER_OP forces right away. With BATCHED and PER_OP, put and remove return only once their record is forced.
+ * PER_OP has the lowest latency, and changes that arrive while a force runs share the next one. BATCHED caps
+ * how often the disk is forced, which pays off when many threads write to a slow disk.<br>
+ * - Changes are applied and logged under the map's lock, but the force happens outside it: the committer
+ * swaps the record buffer under the lock, then writes and forces it without holding it.<br>
+ * - Once the log passes the compaction threshold, a new log is started and a background thread writes
+ * a copy of the map as the next snapshot, then deletes the files it replaces. The directory is forced
+ * whenever a log or snapshot is created, so the new names survive a crash.<br>
+ */
+public class DurableChainedHashMap implements AutoCloseable {
+
+    /** When records are forced to disk */
+    public enum Durability {
+        /** written when the buffer fills, forced only when a log is closed. fastest, a crash can lose anything not yet written */
+        NONE,
+        /** forced together every BATCH_MILLIS, and put or remove waits for its batch. nothing acknowledged is ever lost */
+        BATCHED,
+        /** forced before put or remove returns. nothing acknowledged is ever lost */
+        PER_OP
+    }
+
+    /**
+     * Group commit interval for BATCHED. Every put waits up to this long, in exchange for at most one
+     * force per interval however many threads write
+     */
+    private static final long BATCH_MILLIS = 2;
+    /** Default log size, in bytes, that starts a compaction */
+    private static final long COMPACT_BYTES = 4L * 1024 * 1024;
+    /** Size of the buffer records collect in before they are written */
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    /** op and key */
+    private static final int RECORD_HEAD = 3;
+    private static final Pattern LOG_NAME = Pattern.compile("wal-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d+)\\.bin");
+
+    private final Path directory;
+    private final Durability durability;
+    private final ChainedHashMap map;
+    private final ScheduledExecutorService background;
+    private final CRC32 crc = new CRC32();
+    /** Records collect here, and the committer swaps in spare while it writes them out */
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_BYTES);
+
+    /** The log being appended to, and its number */
+    private FileChannel log;
+    private long generation;
+    /** Bytes in the current log, including what is still in buffer */
+    private long logBytes;
+    /** Number of records appended, and how many of those are known to be forced */
+    private long appended;
+    private long forced;
+    /** A commit is writing or forcing outside the lock */
+    private boolean committing;
+    private long compactBytes = COMPACT_BYTES;
+    /** The compaction running in the background, or null */
+    private Future<?> compaction;
+    /** First failure of a commit or compaction, thrown by the next call */
+    private IOException failure;
+    private boolean closed;
+
+    //opens the map stored in directory (creating it if needed) and replays
+    //everything it finds there
+    public DurableChainedHashMap(Path directory, Durability durability) throws IOException {
+        if(directory == null || durability == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        this.directory = directory;
+        this.durability = durability;
+        Files.createDirectories(directory);
+        map = recover();
+        log = FileChannel.open(logFile(generation), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        MapSnapshot.forceDirectory(directory);
+        logBytes = log.size();
+        background = Executors.newScheduledThreadPool(2, task -> {
+            Thread t = new Thread(task, "DurableChainedHashMap " + directory);
+            t.setDaemon(true);
+            return t;
+        });
+        if(durability == Durability.BATCHED) {
+            background.scheduleWithFixedDelay(this::groupCommit, BATCH_MILLIS, BATCH_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Path logFile(long n) {
+        return directory.resolve("wal-" + n + ".log");
+    }
+
+    private Path snapshotFile(long n) {
+        return directory.resolve("snapshot-" + n + ".bin");
+    }
+
+    //loads the newest snapshot, replays the logs after it, and sets
+    //generation to a new log number past all of them
+    private ChainedHashMap recover() throws IOException {
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        try(Stream<Path> files = Files.list(directory)) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                Matcher m;
+                if((m = LOG_NAME.matcher(name)).matches()) {
+                    logs.put(Long.parseLong(m.group(1)), file);
+                } else if((m = SNAPSHOT_NAME.matcher(name)).matches()) {
+                    snapshots.put(Long.parseLong(m.group(1)), file);
+                } else if(name.endsWith(".tmp")) {
+                    //a snapshot that never finished
+                    Files.delete(file);
+                }
+            }
+        }
+        long base = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        ChainedHashMap recovered = snapshots.isEmpty()
+                ? new ChainedHashMap() : MapSnapshot.read(snapshots.lastEntry().getValue());
+        long newest = logs.isEmpty() ? -1 : logs.lastKey();
+        for(var entry : logs.tailMap(base, true).entrySet()) {
+            replay(entry.getValue(), recovered, entry.getKey() == newest);
+        }
+        generation = Math.max(base, logs.isEmpty() ? 0 : logs.lastKey() + 1);
+        deleteBelow(base, logs, snapshots);
+        return recovered;
+    }
+
+    //applies every intact record of a log to target. a torn tail is cut off
+    //the newest log, anywhere else it means acknowledged records are missing
+    private static void replay(Path file, ChainedHashMap target, boolean newest) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            if(length > Integer.MAX_VALUE) {
+                throw new IOException("Log too large to map: " + file);
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            CRC32 check = new CRC32();
+            byte[] value = new byte[64];
+            int good = 0;
+            while(in.remaining() >= Integer.BYTES) {
+                int payload = in.getInt();
+                if(payload < RECORD_HEAD || payload > in.remaining() - Integer.BYTES) {
+                    break;
+                }
+                int start = in.position();
+                byte op = in.get();
+                int key = in.getShort();
+                int valueLength = payload - RECORD_HEAD;
+                if(valueLength > value.length) {
+                    value = new byte[Math.max(valueLength, value.length * 2)];
+                }
+                in.get(value, 0, valueLength);
+                check.reset();
+                check.update(in.duplicate().position(start).limit(start + payload));
+                if(in.getInt() != (int) check.getValue()) {
+                    break;
+                }
+                if(op == PUT) {
+                    target.put(key, new String(value, 0, valueLength, StandardCharsets.UTF_8));
+                } else if(op == REMOVE && valueLength == 0) {
+                    target.remove(key);
+                } else {
+                    break;
+                }
+                good = in.position();
+            }
+            if(good < length) {
+                if(!newest) {
+                    //a newer log was written after this one was complete
+                    throw new IOException("Corrupt log " + file.getFileName() + " at byte " + good);
+                }
+                //whatever follows the last good record was never acknowledged.
+                //the cut has to be on disk before a newer log exists, or a
+                //second crash would leave the torn tail in an older log
+                channel.truncate(good);
+                channel.force(true);
+            }
+        }
+    }
+
+    //deletes the logs and snapshots a snapshot numbered base replaces
+    private static void deleteBelow(long base, TreeMap<Long, Path> logs,
+            TreeMap<Long, Path> snapshots) throws IOException {
+        for(Path file : logs.headMap(base).values()) {
+            Files.deleteIfExists(file);
+        }
+        for(Path file : snapshots.headMap(base).values()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private boolean isValidKey(int key) {
+        return key <= 9999 && key >= 1000;
+    }
+
+    //returns once the change is as durable as the map's durability promises
+    public void put(int key, String value) throws IOException {
+        //validate before anything is logged
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        if(value == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long record;
+        synchronized(this) {
+            record = append(PUT, key, bytes);
+            map.put(key, value);
+            afterAppend();
+        }
+        awaitForced(record);
+    }
+
+    public void remove(int key) throws IOException {
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        long record;
+        synchronized(this) {
+            record = append(REMOVE, key, new byte[0]);
+            map.remove(key);
+            afterAppend();
+        }
+        awaitForced(record);
+    }
+
+    public synchronized String get(int key) {
+        checkOpen();
+        return map.get(key);
+    }
+
+    public synchronized boolean containsKey(int key) {
+        checkOpen();
+        return map.containsKey(key);
+    }
+
+    public synchronized int getSize() {
+        checkOpen();
+        return map.getSize();
+    }
+
+    public synchronized ArrayList<Integer> getValues(String target) {
+        checkOpen();
+        return map.getValues(target);
+    }
+
+    public synchronized String toString() {
+        checkOpen();
+        return map.toString();
+    }
+
+    private void checkOpen() {
+        if(closed) {
+            throw new IllegalStateException("Map is closed");
+        }
+    }
+
+    //throws the first background failure, once
+    private void checkHealthy() throws IOException {
+        checkOpen();
+        if(failure != null) {
+            IOException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    //waits on the lock, turning an interrupt into an InterruptedIOException
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the log");
+        }
+    }
+
+    //adds one record to the buffer, writing the buffer out first if it is
+    //full, and returns its number
+    private long append(byte op, int key, byte[] value) throws IOException {
+        int payload = RECORD_HEAD + value.length;
+        int record = Integer.BYTES + payload + Integer.BYTES;
+        //a commit writing outside the lock has to finish before anything
+        //else goes to the log, or the records would land out of order
+        while(committing && record > buffer.remaining()) {
+            await();
+        }
+        checkHealthy();
+        if(record > buffer.remaining()) {
+            flush();
+        }
+        if(record > buffer.capacity()) {
+            //too big to ever fit, write it on its own
+            ByteBuffer big = ByteBuffer.allocate(record);
+            putRecord(big, op, key, value);
+            big.flip();
+            while(big.hasRemaining()) {
+                log.write(big);
+            }
+        } else {
+            putRecord(buffer, op, key, value);
+        }
+        logBytes += record;
+        return ++appended;
+    }
+
+    private void putRecord(ByteBuffer out, byte op, int key, byte[] value) {
+        int start = out.position();
+        out.putInt(RECORD_HEAD + value.length);
+        out.put(op).putShort((short) key).put(value);
+        crc.reset();
+        crc.update(out.duplicate().position(start + Integer.BYTES).limit(out.position()));
+        out.putInt((int) crc.getValue());
+    }
+
+    private void afterAppend() throws IOException {
+        if(logBytes > compactBytes && compaction == null) {
+            startCompaction();
+        }
+    }
+
+    //returns once record is forced: right away with NONE, after the next
+    //batch with BATCHED, after a commit of its own (or one it joins) with PER_OP
+    private void awaitForced(long record) throws IOException {
+        if(durability == Durability.PER_OP) {
+            commit(record);
+        } else if(durability == Durability.BATCHED) {
+            synchronized(this) {
+                while(forced < record) {
+                    if(failure != null) {
+                        throw new IOException("Log commit failed", failure);
+                    }
+                    await();
+                }
+            }
+        }
+    }
+
+    //writes the buffer to the log, without forcing it. only called with the
+    //lock held and no commit running
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    //one group commit: writes and forces everything appended so far, unless
+    //record and everything before it is forced already. the buffer is swapped
+    //under the lock and written and forced outside it, so changes keep going
+    //into the other buffer meanwhile
+    private void commit(long record) throws IOException {
+        ByteBuffer out;
+        FileChannel channel;
+        long target;
+        synchronized(this) {
+            while(committing) {
+                await();
+            }
+            if(forced >= Math.min(record, appended)) {
+                return;
+            }
+            committing = true;
+            out = buffer;
+            buffer = spare;
+            channel = log;
+            target = appended;
+        }
+        boolean done = false;
+        try {
+            out.flip();
+            while(out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(false);
+            done = true;
+        } catch(IOException e) {
+            synchronized(this) {
+                if(failure == null) {
+                    failure = e;
+                }
+            }
+            throw e;
+        } finally {
+            synchronized(this) {
+                out.clear();
+                spare = out;
+                committing = false;
+                if(done) {
+                    forced = target;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    //the BATCHED timer
+    private void groupCommit() {
+        synchronized(this) {
+            if(closed || failure != null) {
+                return;
+            }
+        }
+        try {
+            commit(Long.MAX_VALUE);
+        } catch(IOException e) {
+            //commit kept it in failure, and woke whoever waits for it
+        }
+    }
+
+    //forces everything logged so far to disk, whatever the durability
+    public void sync() throws IOException {
+        synchronized(this) {
+            checkHealthy();
+        }
+        commit(Long.MAX_VALUE);
+    }
+
+    //log size in bytes that starts a background compaction
+    public synchronized void setCompactThreshold(long bytes) {
+        if(bytes <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive");
+        }
+        compactBytes = bytes;
+    }
+
+    //bytes in the current log
+    public synchronized long getLogSize() {
+        return logBytes;
+    }
+
+    //starts a compaction now unless one is running. returns it so callers
+    //can wait for it
+    public synchronized Future<?> compact() throws IOException {
+        checkHealthy();
+        if(compaction == null) {
+            startCompaction();
+        }
+        return compaction;
+    }
+
+    //switches to a new log and writes a copy of the map as the snapshot
+    //that replaces every earlier file. only the copy and the switch happen
+    //under the lock
+    private void startCompaction() throws IOException {
+        while(committing) {
+            await();
+        }
+        if(compaction != null) {
+            //started by someone else while we waited
+            return;
+        }
+        ChainedHashMap copy = new ChainedHashMap();
+        copy.putAll(map);
+        //the old log stays complete until the snapshot is down, and is forced
+        //even with NONE: replay only forgives a torn tail in the newest log.
+        //this happens once per compaction, so it is done under the lock
+        if(buffer.position() > 0) {
+            flush();
+        }
+        log.force(false);
+        forced = appended;
+        notifyAll();
+        log.close();
+        generation++;
+        log = FileChannel.open(logFile(generation), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        MapSnapshot.forceDirectory(directory);
+        logBytes = 0;
+        long base = generation;
+        compaction = background.submit(() -> {
+            try {
+                MapSnapshot.write(copy, snapshotFile(base));
+                TreeMap<Long, Path> logs = new TreeMap<>();
+                TreeMap<Long, Path> snapshots = new TreeMap<>();
+                for(long n = 0; n < base; n++) {
+                    logs.put(n, logFile(n));
+                    snapshots.put(n, snapshotFile(n));
+                }
+                deleteBelow(base, logs, snapshots);
+            } catch(IOException e) {
+                synchronized(DurableChainedHashMap.this) {
+                    if(failure == null) {
+                        failure = e;
+                    }
+                }
+            } finally {
+                synchronized(DurableChainedHashMap.this) {
+                    compaction = null;
+                }
+            }
+        });
+    }
+
+    //waits for a running compaction, then forces and closes the log
+    @Override
+    public void close() throws IOException {
+        Future<?> running;
+        synchronized(this) {
+            if(closed) {
+                return;
+            }
+            running = compaction;
+        }
+        if(running != null) {
+            try {
+                running.get();
+            } catch(Exception e) {
+                //its failure, if any, is in failure
+            }
+        }
+        synchronized(this) {
+            closed = true;
+            background.shutdown();
+        }
+        try {
+            commit(Long.MAX_VALUE);
+        } finally {
+            synchronized(this) {
+                while(committing) {
+                    await();
+                }
+                log.close();
+            }
+        }
+        synchronized(this) {
+            if(failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package systemImp;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics for one ChainedHashMap or MyHashSet, turned on with setStatsEnabled(true).<br>
+ *
+ * - Hits, misses, rehash count and rehash time are counted as the table is used.<br>
+ * - Size, table length, tombstones and the histograms are read from the table when asked for,
+ * so they cost nothing until then.<br>
+ * - Chain length histogram: entry i is the number of buckets holding i entries. For open addressing
+ * a chain is a run of taken slots (keys or DELETED) between two empty ones.<br>
+ * - Probe length histogram: entry i is the number of keys a lookup finds after looking at i slots
+ * (or chain entries).<br>
+ * - register publishes the stats as an MBean. The tables aren't thread-safe, so values read over
+ * JMX while the table is being changed are approximate.<br>
+ */
+public class HashTableStats implements HashTableStatsMBean {
+
+    /** What the stats read from the table they belong to */
+    interface Source {
+        int size();
+
+        int tableLength();
+
+        int tombstones();
+
+        int[] chainLengthHistogram();
+
+        int[] probeLengthHistogram();
+    }
+
+    private final Source source;
+    private long hits;
+    private long misses;
+    private long rehashCount;
+    private long rehashNanos;
+    private ObjectName registeredName;
+
+    HashTableStats(Source source) {
+        this.source = source;
+    }
+
+    //a lookup that found (or didn't find) its key
+    void lookup(boolean found) {
+        if(found) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    //a rehash that started at System.nanoTime() == start and is done now
+    void rehashed(long start) {
+        rehashCount++;
+        rehashNanos += System.nanoTime() - start;
+    }
+
+    //time spent moving entries for a rehash that was already counted
+    void rehashTime(long start) {
+        rehashNanos += System.nanoTime() - start;
+    }
+
+    public int getSize() {
+        return source.size();
+    }
+
+    public int getTableLength() {
+        return source.tableLength();
+    }
+
+    public int getTombstones() {
+        return source.tombstones();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getRehashCount() {
+        return rehashCount;
+    }
+
+    public long getRehashTimeNanos() {
+        return rehashNanos;
+    }
+
+    public int[] getChainLengthHistogram() {
+        return source.chainLengthHistogram();
+    }
+
+    public int[] getProbeLengthHistogram() {
+        return source.probeLengthHistogram();
+    }
+
+    //sets the counters back to 0. the table itself is not touched
+    public void reset() {
+        hits = 0;
+        misses = 0;
+        rehashCount = 0;
+        rehashNanos = 0;
+    }
+
+    //registers with the platform MBean server as
+    //systemImp:type=HashTableStats,name=<name>
+    public ObjectName register(String name) {
+        if(name == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        if(registeredName != null) {
+            throw new IllegalStateException("Already registered as " + registeredName);
+        }
+        try {
+            ObjectName objectName = ObjectName.getInstance("systemImp:type=HashTableStats,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            registeredName = objectName;
+            return objectName;
+        } catch(JMException e) {
+            throw new IllegalStateException("Could not register " + name, e);
+        }
+    }
+
+    //removes the MBean again, does nothing if it isn't registered
+    public void unregister() {
+        if(registeredName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if(server.isRegistered(registeredName)) {
+                server.unregisterMBean(registeredName);
+            }
+        } catch(JMException e) {
+            throw new IllegalStateException("Could not unregister " + registeredName, e);
+        } finally {
+            registeredName = null;
+        }
+    }
+
+    //histogram helper: counts[value]++, growing counts as needed
+    static int[] increment(int[] counts, int value, int by) {
+        if(value >= counts.length) {
+            int[] bigger = new int[Math.max(value + 1, counts.length * 2)];
+            System.arraycopy(counts, 0, bigger, 0, counts.length);
+            counts = bigger;
+        }
+        counts[value] += by;
+        return counts;
+    }
+
+    //drops the unused zero entries from the end of a histogram
+    static int[] trim(int[] counts) {
+        int length = counts.length;
+        while(length > 0 && counts[length - 1] == 0) {
+            length--;
+        }
+        int[] trimmed = new int[length];
+        System.arraycopy(counts, 0, trimmed, 0, length);
+        return trimmed;
+    }
+}
@@ -0,0 +1,27 @@
+package systemImp;
+
+/**
+ * The JMX view of HashTableStats. Every attribute is read when it is asked for.<br>
+ */
+public interface HashTableStatsMBean {
+
+    int getSize();
+
+    int getTableLength();
+
+    int getTombstones();
+
+    long getHits();
+
+    long getMisses();
+
+    long getRehashCount();
+
+    long getRehashTimeNanos();
+
+    int[] getChainLengthHistogram();
+
+    int[] getProbeLengthHistogram();
+
+    void reset();
+}
@@ -0,0 +1,47 @@
+package systemImp;
+
+/**
+ * A growable, unordered bag of ints backed by an int[].<br>
+ *
+ * - Used for the reverse value index, so keys are never boxed.<br>
+ * - remove swaps the last element into the hole, so order is not kept.<br>
+ */
+final class IntBag {
+
+    private int[] items;
+    private int size;
+
+    IntBag() {
+        items = new int[2];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(int item) {
+        if(size == items.length) {
+            int[] bigger = new int[items.length * 2];
+            System.arraycopy(items, 0, bigger, 0, size);
+            items = bigger;
+        }
+        items[size++] = item;
+    }
+
+    //removes one copy of item, returns false if it wasn't there
+    boolean remove(int item) {
+        for(int i = 0; i < size; i++) {
+            if(items[i] == item) {
+                items[i] = items[--size];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int[] toArray() {
+        int[] copy = new int[size];
+        System.arraycopy(items, 0, copy, 0, size);
+        return copy;
+    }
+}
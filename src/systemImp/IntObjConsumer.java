@@ -0,0 +1,10 @@
+package systemImp;
+
+/**
+ * Takes an int key and its value, like a BiConsumer without boxing the key.<br>
+ */
+@FunctionalInterface
+public interface IntObjConsumer<T> {
+
+    void accept(int key, T value);
+}
@@ -0,0 +1,75 @@
+package systemImp;
+
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The public API shared by ChainedHashMap and OpenHashMap, so callers can switch storage engines
+ * by changing only the constructor they call.<br>
+ *
+ * - Keys are 4-digit integers from 1000 (inclusive) to 9999 (inclusive), values are never null.<br>
+ * - Both engines check keys and values the same way and throw the same messages.<br>
+ * - Iteration, forEach, cursor() and the streams all walk the entries in the same order, which
+ * is whatever order the engine keeps them in.<br>
+ */
+public interface IntStringMap extends Iterable<ChainedHashMap.Entry> {
+
+    int getSize();
+
+    int getTableLength();
+
+    void put(int key, String value);
+
+    //puts keys[i] -> values[i] for every i, checking everything first and
+    //sizing the table once
+    void putAll(int[] keys, String[] values);
+
+    //puts every entry of other, sized once like putAll
+    void putAll(IntStringMap other);
+
+    //sizes the table for expectedSize entries in total
+    void reserve(int expectedSize);
+
+    String get(int key);
+
+    boolean containsKey(int key);
+
+    ArrayList<Integer> getValues(String target);
+
+    //same keys as getValues, as an int[] with no boxing
+    int[] getKeysForValue(String target);
+
+    void remove(int key);
+
+    //calls action with every key and value without allocating anything
+    void forEach(IntObjConsumer<? super String> action);
+
+    Cursor cursor();
+
+    Stream<ChainedHashMap.Entry> stream();
+
+    Stream<ChainedHashMap.Entry> parallelStream();
+
+    IntStream keyStream();
+
+    void setStatsEnabled(boolean enabled);
+
+    HashTableStats getStats();
+
+    /**
+     * A reusable position in a map, for walking it without allocating.<br>
+     * advance() moves to the next entry and returns false once there are no more, key() and
+     * value() read the entry it is on, and reset() goes back to the start.<br>
+     */
+    interface Cursor {
+
+        void reset();
+
+        boolean advance();
+
+        int key();
+
+        String value();
+    }
+}
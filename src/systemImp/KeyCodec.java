@@ -0,0 +1,72 @@
+package systemImp;
+
+/**
+ * Packs MyHashSet keys (1 to 5 letters, a to z) into a single int.<br>
+ *
+ * - Each letter is a base 27 digit, 'a' = 1 to 'z' = 26, first letter most significant.<br>
+ * - No digit is 0, so every key has exactly one code, from 1 ("a") to 14348906 ("zzzzz").<br>
+ * - 0 is never a code, so tables can use it for an empty slot.<br>
+ * - encode returns INVALID instead of throwing, and never allocates.<br>
+ */
+final class KeyCodec {
+
+    /** Returned by encode for anything that is not a valid key */
+    static final int INVALID = -1;
+    /** Longest valid key */
+    static final int MAX_LENGTH = 5;
+    /** Number of digits per letter, one more than the alphabet for the unused 0 */
+    static final int RADIX = 27;
+    /** Every code is below this, 27^5 */
+    static final int CODE_LIMIT = RADIX * RADIX * RADIX * RADIX * RADIX;
+
+    private KeyCodec() {
+    }
+
+    //code of a key, or INVALID
+    static int encode(CharSequence key) {
+        if(key == null) {
+            return INVALID;
+        }
+        int length = key.length();
+        if(length == 0 || length > MAX_LENGTH) {
+            return INVALID;
+        }
+        int code = 0;
+        for(int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if(c < 'a' || c > 'z') {
+                return INVALID;
+            }
+            code = code * RADIX + (c - 'a' + 1);
+        }
+        return code;
+    }
+
+    //code of chars[offset, offset + length), or INVALID
+    static int encode(char[] chars, int offset, int length) {
+        if(chars == null || length <= 0 || length > MAX_LENGTH
+                || offset < 0 || offset + length > chars.length) {
+            return INVALID;
+        }
+        int code = 0;
+        for(int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            if(c < 'a' || c > 'z') {
+                return INVALID;
+            }
+            code = code * RADIX + (c - 'a' + 1);
+        }
+        return code;
+    }
+
+    //the key a code came from
+    static String decode(int code) {
+        char[] letters = new char[MAX_LENGTH];
+        int start = MAX_LENGTH;
+        while(code > 0) {
+            letters[--start] = (char) ('a' + code % RADIX - 1);
+            code /= RADIX;
+        }
+        return new String(letters, start, MAX_LENGTH - start);
+    }
+}
@@ -0,0 +1,185 @@
+package systemImp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshots of a ChainedHashMap.<br>
+ *
+ * - Layout (big endian): a HEADER_BYTES header (MAGIC, VERSION, entry count, arena length in bytes),
+ * then every key as an int, then the value arena: each value as an int byte length followed by its UTF-8 bytes.
+ * Value i belongs to key i.<br>
+ * - write goes through a FileChannel into a temporary file next to the target, which is then moved over it,
+ * so a crash mid-write leaves the previous snapshot in place. The directory is forced after the move so the new
+ * name survives a crash too. If the write fails the temporary file is deleted.<br>
+ * - read memory-maps the file and bulk loads it with putAll, so the map is sized once and never rehashes on the way.<br>
+ */
+public final class MapSnapshot {
+
+    /** "CHMS", marks a snapshot file */
+    private static final int MAGIC = 0x43484D53;
+    /** Format version, bumped whenever the layout changes */
+    private static final int VERSION = 1;
+    /** magic, version, count, arena length */
+    private static final int HEADER_BYTES = 16;
+    /** Size of the buffer write fills before handing it to the channel */
+    private static final int CHUNK = 64 * 1024;
+
+    private MapSnapshot() {
+    }
+
+    //writes every entry of map to file, replacing whatever was there
+    public static void write(ChainedHashMap map, Path file) throws IOException {
+        if(map == null || file == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        int count = map.getSize();
+        int[] keys = new int[count];
+        byte[][] values = new byte[count][];
+        int[] n = {0};
+        map.forEach((key, value) -> {
+            keys[n[0]] = key;
+            values[n[0]++] = value.getBytes(StandardCharsets.UTF_8);
+        });
+        long arena = 0;
+        for(byte[] value : values) {
+            arena += Integer.BYTES + value.length;
+        }
+        if(HEADER_BYTES + (long) Integer.BYTES * count + arena > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large to map");
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt((int) arena);
+                for(int key : keys) {
+                    if(buffer.remaining() < Integer.BYTES) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putInt(key);
+                }
+                for(byte[] value : values) {
+                    if(buffer.remaining() < Integer.BYTES) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putInt(value.length);
+                    if(value.length > buffer.remaining()) {
+                        //too big for what is left, write it straight from the array
+                        flush(channel, buffer);
+                        ByteBuffer whole = ByteBuffer.wrap(value);
+                        while(whole.hasRemaining()) {
+                            channel.write(whole);
+                        }
+                    } else {
+                        buffer.put(value);
+                    }
+                }
+                flush(channel, buffer);
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            //the rename is only durable once the directory entry is
+            forceDirectory(file.toAbsolutePath().getParent());
+        } catch(IOException | RuntimeException e) {
+            //don't leave a half-written snapshot lying around
+            try {
+                Files.deleteIfExists(temp);
+            } catch(IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    //forces a directory's entries to disk, so files created or renamed in it
+    //survive a crash. skipped where directories can't be opened (Windows)
+    static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch(IOException e) {
+            return;
+        }
+        try(channel) {
+            channel.force(true);
+        }
+    }
+
+    //writes out what buffer holds and empties it
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    //loads a map written by write. throws IOException if the file isn't a
+    //snapshot or doesn't hold what its header says
+    public static ChainedHashMap read(Path file) throws IOException {
+        if(file == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if(length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a ChainedHashMap snapshot");
+            }
+            //the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        if(buffer.getInt() != MAGIC) {
+            throw new IOException("Not a ChainedHashMap snapshot");
+        }
+        int version = buffer.getInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        int count = buffer.getInt();
+        int arena = buffer.getInt();
+        if(count < 0 || arena < 0
+                || HEADER_BYTES + (long) Integer.BYTES * count + arena != buffer.capacity()) {
+            throw new IOException("Corrupt snapshot");
+        }
+        int[] keys = new int[count];
+        buffer.asIntBuffer().get(keys);
+        buffer.position(HEADER_BYTES + Integer.BYTES * count);
+        String[] values = new String[count];
+        byte[] scratch = new byte[64];
+        for(int i = 0; i < count; i++) {
+            int length = buffer.remaining() < Integer.BYTES ? -1 : buffer.getInt();
+            if(length < 0 || length > buffer.remaining()) {
+                throw new IOException("Corrupt snapshot");
+            }
+            if(length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            values[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        if(buffer.hasRemaining()) {
+            throw new IOException("Corrupt snapshot");
+        }
+        ChainedHashMap map = new ChainedHashMap();
+        try {
+            map.putAll(keys, values);
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Corrupt snapshot", e);
+        }
+        if(map.getSize() != count) {
+            //the same key twice
+            throw new IOException("Corrupt snapshot");
+        }
+        return map;
+    }
+}
@@ -1,43 +1,118 @@
 package systemImp;
 
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * A simple implementation of a HashSet using open addressing with linear probing.<br>
  * This HashSet works specifically with Strings.<br>
  * 
  * It enforces the following constraints:<br>
  * - Strings must not be NULL, no longer than 5 characters, and only use a to z, otherwise an exception is thrown.<br>
+ * - Keys can be passed as any CharSequence. Checking and hashing a key is one pass over its characters
+ * that allocates nothing, and so are contains and remove. add only makes a String (with toString) when
+ * it stores a new key that isn't one already.<br>
  * - A custom hash code function uses hash codes based on the prime number 19.<br>
- * - The initial size of the table is 2, and it dynamically resizes to the next prime when necessary.<br>
+ * - The initial size of the table is 2, and it dynamically resizes to the next prime when necessary.
+ * Given an expected size (or reserve(n)) it starts at the prime that holds that many keys instead,
+ * and never goes back below that prime when it leaves bitmap mode.<br>
  * 
  * <p>
  * The set uses open addressing and linear probing for collision resolution.<br>
- * When the load factor is >= a customized threshold (default is 0.75), the table is rehashed to a larger prime size.</p>
+ * When the load factor is >= a customized threshold (default is 0.75), the table is rehashed to a larger prime size.
+ * DELETED slots are counted, and when live keys plus DELETED slots pass the threshold the table is
+ * rehashed at the same size, so lookups don't slow down under add/remove churn.</p>
+ * 
+ * <p>
+ * setRobinHood(true) switches the set to Robin Hood probing: a key that is further from its home slot
+ * takes the slot of one that is closer to home. This keeps displacements close to the average, lets
+ * contains stop early on a miss, and removes by shifting keys back instead of leaving DELETED slots.
+ * It is meant for the higher thresholds such as 0.85.</p>
+ * 
+ * <p>
+ * Once the set holds more than BITMAP_ON keys it switches to a bitmap with one bit per possible key
+ * (see KeyCodec), and switches back to the table when it drops below BITMAP_OFF.
+ * In bitmap mode the load factor is size over the number of possible keys, and toString only lists
+ * the keys that are present, by code.</p>
+ * 
+ * <p>
+ * addAll sizes the table once for everything it adds, then adds it all without rehashing.</p>
+ * 
+ * <p>
+ * setStatsEnabled(true) turns on statistics (see HashTableStats): hits, misses, rehashes,
+ * DELETED slots and cluster and probe length histograms.</p>
+ * 
+ * <p>
+ * iterator(), stream() and parallelStream() walk the keys in slot order (code order in bitmap mode),
+ * on a Spliterator that splits by slot ranges and knows exactly how many keys each range holds.
+ * The set must not be changed while one is in use.</p>
  * 
  * <p>
  * This class ensures that the set operates efficiently and does not allow duplicate entries.
  * </p>
  */
-public class MyHashSet {
+public class MyHashSet implements Iterable<String> {
 
     private static final String DELETED = "DELETED";  // Sentinel for deleted entries
     private static final String EMPTY = null;         // Sentinel for empty entries
     
     // Array of primes for resizing the hash table
     // These primes are chosen to ensure that the table size grows by a "double prime" strategy.
-    private static final int[] PRIMES = {2, 5, 11, 23, 47, 97, 197, 397, 797, 1597};
+    private static final int[] PRIMES = Primes.LADDER;
+    
+    // Size above which the 1.8 MB bitmap is smaller than the table: about 5 bytes of slot plus
+    // a ~48 byte String per key, times 32768 keys
+    private static final int BITMAP_ON = 32768;
+    // Size below which we go back to the table, half of BITMAP_ON so we don't flip back and forth
+    private static final int BITMAP_OFF = 16384;
+    // What the spliterator reports: slot order, and exact sizes for every split
+    private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.DISTINCT
+    		| Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
     
     private String[] table;      // The actual table where the strings are stored
+    private int[] hashCodes;     // myHashCode of the key in the same slot of table
     private int size;            // The current number of elements in the set
+    private int tombstones;      // The current number of DELETED slots
     private int primeIndex;      // Index of the current prime number used for table size
+    private int reservedIndex;   // Smallest primeIndex toTable goes back to, set by reserve
     private double loadFactorThreshold;  // The threshold at which to rehash the table
+    private long[] bitmap;               // One bit per KeyCodec code, null unless in bitmap mode
+    private boolean robinHood;           // Robin Hood probing instead of plain linear probing
+    private HashTableStats stats;        // Hit, miss and rehash counters, null unless turned on
     
     public MyHashSet() {
     	table = new String[2];
+    	hashCodes = new int[2];
     	this.size = 0;
+    	this.tombstones = 0;
     	this.primeIndex = 0;
     	this.loadFactorThreshold = 0.75;
     }
     
+    //a set sized for expectedSize keys at the default threshold, so it
+    //doesn't rehash on the way there
+    public MyHashSet(int expectedSize) {
+    	this();
+    	reserve(expectedSize);
+    }
+    
+    //sizes the table for expectedSize keys in total at the current
+    //threshold. does nothing if it is already big enough. a table never
+    //holds more than BITMAP_ON keys, so that caps it: the set still only
+    //switches to the bitmap once it really holds that many
+    public void reserve(int expectedSize) {
+    	if(expectedSize < 0) {
+    		throw new IllegalArgumentException("Expected size can't be negative");
+    	}
+    	int keys = Math.min(expectedSize, BITMAP_ON);
+    	reservedIndex = Math.max(reservedIndex, primeIndexFor(keys));
+    	ensureCapacity(keys);
+    }
+    
     public void setLoadFactorThreshold(double threshold) {
     	//makes sure the value is within 0.00001 due to comparing doubles
     	boolean ff = Math.abs(0.45 - threshold) < 0.00001;
@@ -59,61 +134,122 @@ public class MyHashSet {
     	}
     }
     
+    //switches between plain linear probing (the default) and Robin Hood
+    //probing. the keys already in the table are rehashed the new way
+    public void setRobinHood(boolean enabled) {
+    	if(enabled == robinHood) {
+    		return;
+    	}
+    	robinHood = enabled;
+    	if(bitmap == null) {
+    		rebuild();
+    	}
+    }
+    
+    //turns statistics on or off. turning them on starts every counter at
+    //0, turning them off drops them and unregisters their MBean
+    public void setStatsEnabled(boolean enabled) {
+    	if(enabled && stats == null) {
+    		stats = new HashTableStats(new StatsSource());
+    	} else if(!enabled && stats != null) {
+    		stats.unregister();
+    		stats = null;
+    	}
+    }
+    
+    //the statistics, or null while they are off
+    public HashTableStats getStats() {
+    	return stats;
+    }
+    
     //calculate the load factor by getting the size instance variable
     //and dividing it with the length of the table[]
     public double getLoadFactor() {
+    	if(bitmap != null) {
+    		return size / (double) KeyCodec.CODE_LIMIT;
+    	}
     	double loadFactor = size / (double) table.length;
     	return loadFactor;
     }
     
     public String toString() {
     	StringBuilder log = new StringBuilder();
+    	if(bitmap != null) {
+    		//only the keys that are there, indexed by their code
+    		for(int code = nextCode(0); code >= 0; code = nextCode(code + 1)) {
+    			log.append("Index " + code + ": ").append(KeyCodec.decode(code) + "\n");
+    		}
+    		return log.toString();
+    	}
     	for(int i = 0; i < table.length; i++) {
     		log.append("Index " + i + ": ").append(table[i] + "\n");
     	}
     	return log.toString();
     }
     
-    private boolean isValidKey(String key) {
-    	//checks if key is null or all and upper case letters
-    	//and the key is less than to 5 characters long but not empty
-    	if(key == EMPTY || !key.equals(key.toLowerCase())
-    			|| key.length() > 5 || key.length() <= 0) {
-            return false;
-        }
-    	//loop through string to check if the characters are 
-    	//letters of alphabet
-    	for(char c : key.toCharArray()) {
-    	    if(c < 'a' || c > 'z') {
-    	        return false;
-    	    }
+    //checks and hashes a key in one pass over its characters, without
+    //allocating anything. returns myHashCode of the key, or -1 if the key is
+    //null, empty, longer than 5 characters or has anything but a to z.
+    //a valid key's hash is at most about 19^5 * 'z', so it is never negative
+    private static int validHash(CharSequence key) {
+    	if(key == EMPTY) {
+    		return -1;
     	}
-        return true;
-    }
-
-    public int myHashCode(String key) {
-    	if(!isValidKey(key)) {
-    		throw new IllegalArgumentException("Invalid Key");
+    	int length = key.length();
+    	if(length <= 0 || length > 5) {
+    		return -1;
     	}
     	int prime = 19;
-    	//calculate the first one
-    	int hash = (int) key.charAt(0);
-    	//calculate the rest of the key
-    	for(int i = 1; i < key.length(); i++) {
-    	    hash = (hash * prime) + (int) key.charAt(i);
+    	int hash = 0;
+    	for(int i = 0; i < length; i++) {
+    		char c = key.charAt(i);
+    		if(c < 'a' || c > 'z') {
+    			return -1;
+    		}
+    		hash = (hash * prime) + (int) c;
     	}
     	return hash;
     }
-    
-    private int hash(String key) {
-    	return myHashCode(key) % table.length;
+
+    public int myHashCode(CharSequence key) {
+    	int h = validHash(key);
+    	if(h < 0) {
+    		throw new IllegalArgumentException("Invalid Key");
+    	}
+    	return h;
     }
     
-    public void add(String key) {
-    	if(!isValidKey(key)) {
-    		throw new IllegalArgumentException("Invalid Key");
+    public void add(CharSequence key) {
+    	int h = myHashCode(key);
+    	if(bitmap != null) {
+    		int code = KeyCodec.encode(key);
+    		long bit = 1L << code;
+    		if((bitmap[code >>> 6] & bit) == 0) {
+    			bitmap[code >>> 6] |= bit;
+    			size++;
+    		}
+    		return;
     	}
-        int index = hash(key);
+    	if(robinHood) {
+    		if(addRobinHood(key, h)) {
+    			growIfNeeded();
+    		}
+    		return;
+    	}
+    	//clear out DELETED slots first if they are what fills the table
+    	if(tombstones > 0 
+    			&& (size + tombstones) / (double) table.length > loadFactorThreshold) {
+    		rebuild();
+    	}
+    	if(addLinear(key, h)) {
+    		growIfNeeded();
+    	}
+    }
+    
+    //linear probing insert, without any rehash. returns false if the key
+    //was already there
+    private boolean addLinear(CharSequence key, int h) {
+        int index = h % table.length;
         int originalIndex = index;
         int firstDelete = -1;
     	while(true) {
@@ -122,10 +258,13 @@ public class MyHashSet {
     			//checks if firstDelete index has changed at all
     			if(firstDelete != -1) {
     				//set to first delete
-    				table[firstDelete] = key;	
+    				table[firstDelete] = key.toString();
+    				hashCodes[firstDelete] = h;
+    				tombstones--;
     			} else {
     				//set to index of key if not
-    				table[index] = key;
+    				table[index] = key.toString();
+    				hashCodes[index] = h;
     			}
     			//increase size
     			size++;
@@ -134,8 +273,8 @@ public class MyHashSet {
     		} 
     		//checks if key is equal to the table at the certain index
     		//returns when no space left
-    		else if(key.equals(table[index])){
-    			return;
+    		else if(hashCodes[index] == h && table[index].contentEquals(key)){
+    			return false;
     		} 
     		//checks if the string at index says DELETED
     		//or if firstDelete is not changed
@@ -147,26 +286,239 @@ public class MyHashSet {
     		//get the correct indices for each string of different lengths
             index = (index + 1) % table.length;
             if(index == originalIndex) {
+            	//no empty slot, but a DELETED one will do
+            	if(firstDelete != -1) {
+            		table[firstDelete] = key.toString();
+            		hashCodes[firstDelete] = h;
+            		tombstones--;
+            		size++;
+            		break;
+            	}
                 throw new IllegalStateException("table is full");
             }
     	}
-    	//check for rehash
-    	if(getLoadFactor() > loadFactorThreshold) {
+    	return true;
+    }
+    
+    //adds every key, same as calling add on each. all keys are checked
+    //first, so an invalid one adds nothing. the table is rehashed at most
+    //once, straight to the size that holds them all
+    public void addAll(String[] keys) {
+    	if(keys == null) {
+    		throw new IllegalArgumentException("Invalid Key");
+    	}
+    	for(String key : keys) {
+    		myHashCode(key);
+    	}
+    	addAllValid(keys, keys.length);
+    }
+    
+    //adds every key of other, sized once like addAll
+    public void addAll(MyHashSet other) {
+    	if(other == null) {
+    		throw new IllegalArgumentException("Invalid Key");
+    	}
+    	if(other == this) {
+    		return;
+    	}
+    	if(other.bitmap != null && (bitmap != null || size + other.size > BITMAP_ON)) {
+    		//both sides as bitmaps: one OR per 64 codes
+    		if(bitmap == null) {
+    			toBitmap();
+    		}
+    		int count = 0;
+    		for(int i = 0; i < bitmap.length; i++) {
+    			bitmap[i] |= other.bitmap[i];
+    			count += Long.bitCount(bitmap[i]);
+    		}
+    		size = count;
+    		return;
+    	}
+    	String[] keys = new String[other.size];
+    	int count = 0;
+    	if(other.bitmap != null) {
+    		for(int code = other.nextCode(0); code >= 0; code = other.nextCode(code + 1)) {
+    			keys[count++] = KeyCodec.decode(code);
+    		}
+    	} else {
+    		for(String key : other.table) {
+    			if(key != EMPTY && key != DELETED) {
+    				keys[count++] = key;
+    			}
+    		}
+    	}
+    	addAllValid(keys, count);
+    }
+    
+    //adds keys[0 .. count - 1], which are all valid
+    private void addAllValid(String[] keys, int count) {
+    	ensureCapacity((long) size + count);
+    	if(bitmap != null) {
+    		for(int i = 0; i < count; i++) {
+    			int code = KeyCodec.encode(keys[i]);
+    			long bit = 1L << code;
+    			if((bitmap[code >>> 6] & bit) == 0) {
+    				bitmap[code >>> 6] |= bit;
+    				size++;
+    			}
+    		}
+    		//duplicates can leave the set smaller than planned
+    		if(size < BITMAP_OFF) {
+    			toTable();
+    		}
+    		return;
+    	}
+    	for(int i = 0; i < count; i++) {
+    		String key = keys[i];
+    		int h = validHash(key);
+    		if(robinHood) {
+    			addRobinHood(key, h);
+    		} else {
+    			addLinear(key, h);
+    		}
+    	}
+    }
+    
+    //gets ready for total keys without another rehash: the bitmap if that
+    //is over BITMAP_ON, otherwise at most one rebuild, big enough for
+    //every key and without DELETED slots
+    private void ensureCapacity(long total) {
+    	if(bitmap != null) {
+    		return;
+    	}
+    	if(total > BITMAP_ON) {
+    		toBitmap();
+    		return;
+    	}
+    	int wanted = primeIndexFor((int) total);
+    	if(wanted > primeIndex 
+    			|| (tombstones > 0 && (total + tombstones) / (double) table.length > loadFactorThreshold)) {
+    		primeIndex = Math.max(primeIndex, wanted);
+    		rebuild();
+    	}
+    }
+    
+    //check for the bitmap or a rehash after a key was added
+    private void growIfNeeded() {
+    	if(size > BITMAP_ON) {
+    		toBitmap();
+    	} else if(getLoadFactor() > loadFactorThreshold) {
             rehash();
         }
     }
     
-    public void remove(String key) {
-    	if(!isValidKey(key)) {
-    		throw new IllegalArgumentException("Invalid Key");
+    //how far the key in slot index is from its home slot
+    private int distance(int index) {
+    	int length = table.length;
+    	return (index - hashCodes[index] % length + length) % length;
+    }
+    
+    //Robin Hood insert. returns false if the key was already there
+    private boolean addRobinHood(CharSequence key, int h) {
+    	int length = table.length;
+    	int index = h % length;
+    	int dist = 0;
+    	//the key can only be in front of the first slot whose key is closer
+    	//to home than we are
+    	while(table[index] != EMPTY && distance(index) >= dist) {
+    		if(hashCodes[index] == h && table[index].contentEquals(key)) {
+    			return false;
+    		}
+    		index = (index + 1) % length;
+    		dist++;
+    	}
+    	placeRobinHood(key.toString(), h, index, dist);
+    	size++;
+    	return true;
+    }
+    
+    //puts a key that isn't in the table yet at index, dist slots from its
+    //home, and carries whoever was there along: taking from the rich (close
+    //to home) and giving to the poor (far from home)
+    private void placeRobinHood(String key, int h, int index, int dist) {
+    	int length = table.length;
+    	String carry = key;
+    	int carryHash = h;
+    	while(table[index] != EMPTY) {
+    		int residentDist = distance(index);
+    		if(residentDist < dist) {
+    			String k = table[index];
+    			int kh = hashCodes[index];
+    			table[index] = carry;
+    			hashCodes[index] = carryHash;
+    			carry = k;
+    			carryHash = kh;
+    			dist = residentDist;
+    		}
+    		index = (index + 1) % length;
+    		dist++;
+    	}
+    	table[index] = carry;
+    	hashCodes[index] = carryHash;
+    }
+    
+    //Robin Hood lookup: stops as soon as it reaches a key closer to home
+    //than the one we want, since ours would have taken that slot
+    private int indexOfRobinHood(CharSequence key, int h) {
+    	int length = table.length;
+    	int index = h % length;
+    	int dist = 0;
+    	while(table[index] != EMPTY && distance(index) >= dist) {
+    		if(hashCodes[index] == h && table[index].contentEquals(key)) {
+    			return index;
+    		}
+    		index = (index + 1) % length;
+    		dist++;
     	}
-    	int index = hash(key);
+    	return -1;
+    }
+    
+    //Robin Hood remove: shifts the rest of the run back by one so there
+    //is never a DELETED slot
+    private void removeRobinHood(CharSequence key, int h) {
+    	int index = indexOfRobinHood(key, h);
+    	if(index < 0) {
+    		return;
+    	}
+    	int length = table.length;
+    	int next = (index + 1) % length;
+    	while(table[next] != EMPTY && distance(next) > 0) {
+    		table[index] = table[next];
+    		hashCodes[index] = hashCodes[next];
+    		index = next;
+    		next = (next + 1) % length;
+    	}
+    	table[index] = EMPTY;
+    	size--;
+    }
+    
+    public void remove(CharSequence key) {
+    	int h = myHashCode(key);
+    	if(bitmap != null) {
+    		int code = KeyCodec.encode(key);
+    		long bit = 1L << code;
+    		if((bitmap[code >>> 6] & bit) != 0) {
+    			bitmap[code >>> 6] &= ~bit;
+    			size--;
+    			//go back to the table once the set is sparse again
+    			if(size < BITMAP_OFF) {
+    				toTable();
+    			}
+    		}
+    		return;
+    	}
+    	if(robinHood) {
+    		removeRobinHood(key, h);
+    		return;
+    	}
+    	int index = h % table.length;
         int originalIndex = index;
 
         while(table[index] != EMPTY) {
-            if(key.equals(table[index])) {
+            if(hashCodes[index] == h && table[index].contentEquals(key)) {
                 table[index] = DELETED;
                 size--;
+                tombstones++;
                 break;
             }
             index = (index + 1) % table.length;
@@ -180,38 +532,88 @@ public class MyHashSet {
 
     private void rehash() {
     	//check the next prime. if max then throw exception
-    	if(PRIMES[primeIndex] == 1597) {
+    	if(primeIndex == PRIMES.length - 1) {
     		throw new IllegalStateException("Max size");
     	}
-    	primeIndex++;
+    	//straight to the prime that fits the population, at least one step up
+    	primeIndex = Math.max(primeIndex + 1, primeIndexFor(size));
+    	rebuild();
+    }
+    
+    //index of the smallest prime that keeps size keys at or under the threshold
+    private int primeIndexFor(int keys) {
+    	int i = 0;
+    	while(i < PRIMES.length - 1 && keys / (double) PRIMES[i] > loadFactorThreshold) {
+    		i++;
+    	}
+    	return i;
+    }
+    
+    //moves every key into a new table of size PRIMES[primeIndex] in one
+    //pass. the keys are already valid and their hash codes are cached, so
+    //this skips add(): no validation, no hashing, no nested rehash, and the
+    //only allocation is the new table
+    private void rebuild() {
+    	long start = stats == null ? 0 : System.nanoTime();
     	int newSize = PRIMES[primeIndex];
     	//create temporary string[]
     	String[] oldTable = table;
+    	int[] oldHashCodes = hashCodes;
     	//switch to the new table first
         table = new String[newSize];
-        //reset size because add() will increment it again
-        size = 0;
-        for(String key : oldTable) {
-            if(key != EMPTY && !key.equals(DELETED)) {
-            	//now add goes into the new table
-                add(key);
+        hashCodes = new int[newSize];
+        tombstones = 0;
+        for(int i = 0; i < oldTable.length; i++) {
+        	String key = oldTable[i];
+            if(key != EMPTY && key != DELETED) {
+                place(key, oldHashCodes[i]);
             }
         }
+        if(stats != null) {
+        	stats.rehashed(start);
+        }
+    }
+    
+    //puts a key that isn't in the table yet into it, without touching size
+    private void place(String key, int h) {
+    	int index = h % table.length;
+    	if(robinHood) {
+    		placeRobinHood(key, h, index, 0);
+    		return;
+    	}
+    	while(table[index] != EMPTY) {
+    		index = (index + 1) % table.length;
+    	}
+    	table[index] = key;
+    	hashCodes[index] = h;
     }
 
     public int size() {
     	return this.size;
     }
     
-    public boolean contains(String key) {
-    	if(!isValidKey(key)) {
-    		throw new IllegalArgumentException("Invalid Key");
+    public boolean contains(CharSequence key) {
+    	boolean found = find(key, myHashCode(key));
+    	if(stats != null) {
+    		stats.lookup(found);
+    	}
+    	return found;
+    }
+    
+    //whether a valid key with myHashCode h is in the set
+    private boolean find(CharSequence key, int h) {
+    	if(bitmap != null) {
+    		int code = KeyCodec.encode(key);
+    		return (bitmap[code >>> 6] & (1L << code)) != 0;
     	}
-    	int index = hash(key);
+    	if(robinHood) {
+    		return indexOfRobinHood(key, h) >= 0;
+    	}
+    	int index = h % table.length;
         int originalIndex = index;
 
         while(table[index] != EMPTY) {
-            if(key.equals(table[index])) {
+            if(hashCodes[index] == h && table[index].contentEquals(key)) {
                 return true;
             }
             index = (index + 1) % table.length;
@@ -228,11 +630,275 @@ public class MyHashSet {
     		return false;
     	}
     	for(String key: keys) {
-        	if(!isValidKey(key) || !contains(key)) {
+    		int h = validHash(key);
+    		if(h < 0) {
+    			return false;
+    		}
+    		boolean found = find(key, h);
+    		if(stats != null) {
+    			stats.lookup(found);
+    		}
+        	if(!found) {
         		return false;
         	}
         }
         return true;
     }
-}
-
+    
+    //average number of slots a lookup for a missing key looks at before it
+    //reaches an empty slot, over every slot it could start from. DELETED
+    //slots make this grow, so it shows how much they slow lookups down
+    public double getAverageProbeLength() {
+    	if(bitmap != null) {
+    		return 1;
+    	}
+    	int length = table.length;
+    	//find an empty slot to start from, walking backwards from it
+    	int start = -1;
+    	for(int i = 0; i < length; i++) {
+    		if(table[i] == EMPTY) {
+    			start = i;
+    			break;
+    		}
+    	}
+    	if(start == -1) {
+    		//nothing is empty, every miss walks the whole table
+    		return length;
+    	}
+    	long total = 0;
+    	int run = 0;
+    	for(int step = 0; step < length; step++) {
+    		int i = (start - step + length) % length;
+    		run = table[i] == EMPTY ? 1 : run + 1;
+    		total += run;
+    	}
+    	return total / (double) length;
+    }
+    
+    //moves every key into the bitmap and drops the table
+    private void toBitmap() {
+    	long start = stats == null ? 0 : System.nanoTime();
+    	long[] bits = new long[(KeyCodec.CODE_LIMIT + 63) / 64];
+    	for(String key : table) {
+    		if(key != EMPTY && !key.equals(DELETED)) {
+    			int code = KeyCodec.encode(key);
+    			bits[code >>> 6] |= 1L << code;
+    		}
+    	}
+    	bitmap = bits;
+    	table = null;
+    	hashCodes = null;
+    	if(stats != null) {
+    		stats.rehashed(start);
+    	}
+    }
+    
+    //rebuilds the table at the smallest prime that keeps the load factor
+    //under the threshold, but not below what was reserved, then drops the
+    //bitmap
+    private void toTable() {
+    	long start = stats == null ? 0 : System.nanoTime();
+    	primeIndex = Math.max(reservedIndex, primeIndexFor(size));
+    	long[] bits = bitmap;
+    	bitmap = null;
+    	tombstones = 0;
+    	table = new String[PRIMES[primeIndex]];
+    	hashCodes = new int[PRIMES[primeIndex]];
+    	for(int code = nextCode(bits, 0); code >= 0; code = nextCode(bits, code + 1)) {
+    		String key = KeyCodec.decode(code);
+    		place(key, validHash(key));
+    	}
+    	if(stats != null) {
+    		stats.rehashed(start);
+    	}
+    }
+    
+    //smallest code >= from that is in the bitmap, or -1
+    private int nextCode(int from) {
+    	return nextCode(bitmap, from);
+    }
+    
+    private static int nextCode(long[] bits, int from) {
+    	int word = from >>> 6;
+    	if(word >= bits.length) {
+    		return -1;
+    	}
+    	long w = bits[word] & (-1L << from);
+    	while(w == 0) {
+    		if(++word == bits.length) {
+    			return -1;
+    		}
+    		w = bits[word];
+    	}
+    	return (word << 6) + Long.numberOfTrailingZeros(w);
+    }
+    
+    @Override
+    public Iterator<String> iterator() {
+    	return Spliterators.iterator(spliterator());
+    }
+    
+    @Override
+    public Spliterator<String> spliterator() {
+    	int end = bitmap != null ? KeyCodec.CODE_LIMIT : table.length;
+    	return new KeySpliterator(0, end, size);
+    }
+    
+    public Stream<String> stream() {
+    	return StreamSupport.stream(spliterator(), false);
+    }
+    
+    public Stream<String> parallelStream() {
+    	return StreamSupport.stream(spliterator(), true);
+    }
+    
+    //walks slots [from, to) of the table, or codes [from, to) of the bitmap.
+    //trySplit hands out the first half, and the number of keys left is
+    //exact, counted the first time it is asked for
+    private final class KeySpliterator implements Spliterator<String> {
+    	private int from;
+    	private final int to;
+    	private long remaining;    // keys left, -1 until counted
+    	
+    	KeySpliterator(int from, int to, long remaining) {
+    		this.from = from;
+    		this.to = to;
+    		this.remaining = remaining;
+    	}
+    	
+    	public boolean tryAdvance(Consumer<? super String> action) {
+    		String key = null;
+    		if(bitmap != null) {
+    			int code = from < to ? nextCode(from) : -1;
+    			if(code >= 0 && code < to) {
+    				key = KeyCodec.decode(code);
+    				from = code + 1;
+    			} else {
+    				from = to;
+    			}
+    		} else {
+    			while(key == null && from < to) {
+    				String k = table[from++];
+    				if(k != EMPTY && k != DELETED) {
+    					key = k;
+    				}
+    			}
+    		}
+    		if(key == null) {
+    			return false;
+    		}
+    		if(remaining > 0) {
+    			remaining--;
+    		}
+    		action.accept(key);
+    		return true;
+    	}
+    	
+    	public Spliterator<String> trySplit() {
+    		if(to - from < 2) {
+    			return null;
+    		}
+    		int mid = (from + to) >>> 1;
+    		KeySpliterator prefix = new KeySpliterator(from, mid, -1);
+    		from = mid;
+    		remaining = -1;
+    		return prefix;
+    	}
+    	
+    	public long estimateSize() {
+    		if(remaining < 0) {
+    			long n = 0;
+    			if(bitmap != null) {
+    				for(int code = from; code < to; code = (code | 63) + 1) {
+    					//the bits of this word from code up to to
+    					long w = bitmap[code >>> 6] & (-1L << code);
+    					int end = to - (code & ~63);
+    					if(end < 64) {
+    						w &= (1L << end) - 1;
+    					}
+    					n += Long.bitCount(w);
+    				}
+    			} else {
+    				for(int i = from; i < to; i++) {
+    					if(table[i] != EMPTY && table[i] != DELETED) {
+    						n++;
+    					}
+    				}
+    			}
+    			remaining = n;
+    		}
+    		return remaining;
+    	}
+    	
+    	public int characteristics() {
+    		return CHARACTERISTICS;
+    	}
+    }
+    
+    //what the stats read from the set. works on the fields as they are
+    //right now and never changes them
+    private class StatsSource implements HashTableStats.Source {
+    	public int size() {
+    		return size;
+    	}
+    	public int tableLength() {
+    		String[] t = table;
+    		return t == null ? KeyCodec.CODE_LIMIT : t.length;
+    	}
+    	public int tombstones() {
+    		return bitmap != null ? 0 : tombstones;
+    	}
+    	
+    	//lengths of the runs of taken slots (keys or DELETED) between two
+    	//empty slots, plus how many empty slots there are at 0
+    	public int[] chainLengthHistogram() {
+    		String[] t = table;
+    		if(t == null) {
+    			return new int[0];
+    		}
+    		int length = t.length;
+    		int start = -1;
+    		for(int i = 0; i < length; i++) {
+    			if(t[i] == EMPTY) {
+    				start = i;
+    				break;
+    			}
+    		}
+    		if(start == -1) {
+    			//one run around the whole table
+    			return HashTableStats.increment(new int[1], length, 1);
+    		}
+    		int[] counts = new int[2];
+    		int run = 0;
+    		for(int step = 1; step <= length; step++) {
+    			int i = (start + step) % length;
+    			if(t[i] == EMPTY) {
+    				counts = HashTableStats.increment(counts, run, 1);
+    				run = 0;
+    			} else {
+    				run++;
+    			}
+    		}
+    		return HashTableStats.trim(counts);
+    	}
+    	
+    	//slots contains looks at to find each key: its distance from its
+    	//home slot plus one. every key is one look in the bitmap
+    	public int[] probeLengthHistogram() {
+    		String[] t = table;
+    		int[] codes = hashCodes;
+    		if(t == null || codes == null || codes.length != t.length) {
+    			return HashTableStats.trim(HashTableStats.increment(new int[2], 1, size));
+    		}
+    		int length = t.length;
+    		int[] counts = new int[2];
+    		for(int i = 0; i < length; i++) {
+    			if(t[i] != EMPTY && t[i] != DELETED) {
+    				int home = codes[i] % length;
+    				counts = HashTableStats.increment(counts, (i - home + length) % length + 1, 1);
+    			}
+    		}
+    		return HashTableStats.trim(counts);
+    	}
+    }
+}
\ No newline at end of file
@@ -0,0 +1,92 @@
+package systemImp;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A version of PackedHashSet that keeps its table outside the Java heap.<br>
+ *
+ * - Same key rules and exceptions as MyHashSet: 1 to 5 letters from a to z.<br>
+ * - Each slot is the key's KeyCodec code, 4 bytes in a direct ByteBuffer. The heap only holds this object
+ * and the buffer header, so the garbage collector has nothing to scan however big the set gets.<br>
+ * - 0 marks an empty slot and -1 a deleted one, same as PackedHashSet.<br>
+ * - Uses open addressing with linear probing on prime sizes, starting at 2. The probing and
+ * rehashing live in PackedCodeSet, shared with PackedHashSet.<br>
+ * - close() frees the table right away instead of waiting for the garbage collector. Every other
+ * method throws IllegalStateException after that. A rehash frees the old table the same way.<br>
+ * - Java 17 has no final MemorySegment API, so the memory is released through the JDK's
+ * sun.misc.Unsafe.invokeCleaner, looked up by reflection. If that is missing, the garbage collector frees it.<br>
+ */
+public class OffHeapHashSet extends PackedCodeSet<ByteBuffer> implements AutoCloseable {
+
+    /** sun.misc.Unsafe and its invokeCleaner method, or null if this JDK doesn't have them */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method cleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            cleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            //no way to free early, the garbage collector will do it
+            unsafe = null;
+            cleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = cleaner;
+    }
+
+    public OffHeapHashSet() {
+        super();
+    }
+
+    //a zeroed (all EMPTY) direct buffer with room for slots codes
+    @Override
+    ByteBuffer allocate(int slots) {
+        return ByteBuffer.allocateDirect(slots * Integer.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    int slot(ByteBuffer table, int index) {
+        return table.getInt(index * Integer.BYTES);
+    }
+
+    @Override
+    void setSlot(ByteBuffer table, int index, int code) {
+        table.putInt(index * Integer.BYTES, code);
+    }
+
+    //frees a direct buffer now if the JDK lets us
+    @Override
+    void release(ByteBuffer buffer) {
+        if(INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch(ReflectiveOperationException e) {
+            //leave it to the garbage collector
+        }
+    }
+
+    //frees the table. safe to call more than once
+    @Override
+    public void close() {
+        ByteBuffer old = detach();
+        if(old != null) {
+            release(old);
+        }
+    }
+
+    //bytes of native memory the table uses right now
+    public long offHeapBytes() {
+        return (long) capacity() * Integer.BYTES;
+    }
+}
@@ -0,0 +1,613 @@
+package systemImp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A HashMap implementation using open addressing with linear probing.<br>
+ *
+ * - Implements IntStringMap with the same key/value rules as ChainedHashMap, so either engine can be
+ * used behind it.<br>
+ * - Stores keys in a flat int[] and values in a parallel String[]. There are no Entry or list nodes.<br>
+ * - Key 0 marks an empty slot, since it can never be a valid key.<br>
+ * - Uses a multiplicative hash on a power of two table: (key * GOLDEN) >>> shift<br>
+ * - Rehashes to double the size when the load factor goes over MAX_LOAD.<br>
+ * - Removes with backward-shift deletion, so there are no DELETED tombstones.<br>
+ * - putAll and reserve size the table once. The table never needs more room than KEY_RANGE keys.<br>
+ * - forEach and cursor() walk every entry without allocating, the streams split by slot ranges.<br>
+ * - Can record statistics (setStatsEnabled): a chain is a run of taken slots, a probe is a slot looked at.<br>
+ */
+public class OpenHashMap implements IntStringMap {
+
+    /** Fibonacci hashing multiplier (2^32 / golden ratio) */
+    private static final int GOLDEN = 0x9E3779B9;
+    /** Initial size of the hash table, must be a power of two */
+    private static final int INITIAL_SIZE = 2;
+    /** Threshold for rehashing: when size / table length exceeds this, we rehash */
+    private static final double MAX_LOAD = 0.5;
+    /** Marks an empty slot in keys[] */
+    private static final int EMPTY = 0;
+    /** Number of valid keys (1000 - 9999), the most the map can ever hold */
+    private static final int KEY_RANGE = 9000;
+    /** What the spliterators report: slot order, and exact sizes for every split */
+    private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.DISTINCT
+            | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
+
+    /** The keys, EMPTY where the slot is free */
+    private int[] keys;
+    /** The values, at the same index as their key */
+    private String[] values;
+    /** The number of key-value pairs stored */
+    private int size;
+    /** Right shift that turns the 32 bit product into a table index */
+    private int shift;
+    /** Hit, miss and rehash counters. null unless turned on with setStatsEnabled */
+    private HashTableStats stats;
+
+    //instantiates OpenHashMap object
+    public OpenHashMap() {
+        keys = new int[INITIAL_SIZE];
+        values = new String[INITIAL_SIZE];
+        shift = 32 - Integer.numberOfTrailingZeros(INITIAL_SIZE);
+        this.size = 0;
+    }
+
+    //instantiates an OpenHashMap sized for expectedSize entries, so
+    //it doesn't rehash on the way there
+    public OpenHashMap(int expectedSize) {
+        this();
+        reserve(expectedSize);
+    }
+
+    //private method that calculates the home slot of a key
+    private int hash(int key) {
+        return (key * GOLDEN) >>> shift;
+    }
+
+    //O(1) time complexity
+    public int getSize() {
+        return this.size;
+    }
+
+    //O(1) time complexity
+    public int getTableLength() {
+        return keys.length;
+    }
+
+    //turns statistics on or off. turning them on starts every counter at
+    //0, turning them off drops them and unregisters their MBean
+    public void setStatsEnabled(boolean enabled) {
+        if(enabled && stats == null) {
+            stats = new HashTableStats(new StatsSource());
+        } else if(!enabled && stats != null) {
+            stats.unregister();
+            stats = null;
+        }
+    }
+
+    //the statistics, or null while they are off
+    public HashTableStats getStats() {
+        return stats;
+    }
+
+    //O(1) time complexity
+    private boolean isValidKey(int key) {
+        return key <= 9999 && key >= 1000;
+    }
+
+    //returns the slot holding key, or -1 if the key is not in the table
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int index = hash(key);
+        int k;
+        //the table always has a free slot, so this stops
+        while((k = keys[index]) != EMPTY) {
+            if(k == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void put(int key, String value) {
+        //validate the key and value
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        if(value == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        //check if resizing is needed
+        if(insert(key, value) && size > keys.length * MAX_LOAD) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    //puts a valid key without checking if a resize is needed. returns true
+    //if the key is new, false if it was updated
+    private boolean insert(int key, String value) {
+        int mask = keys.length - 1;
+        int index = hash(key);
+        int k;
+        while((k = keys[index]) != EMPTY) {
+            if(k == key) {
+                //key exists, update the value
+                values[index] = value;
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        //key doesn't exist, take the free slot
+        keys[index] = key;
+        values[index] = value;
+        size++;
+        return true;
+    }
+
+    //puts keys[i] -> values[i] for every i, same as calling put in order.
+    //everything is checked first, so a bad key or value changes nothing
+    public void putAll(int[] keys, String[] values) {
+        if(keys == null || values == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        if(keys.length != values.length) {
+            throw new IllegalArgumentException("Need one value per key");
+        }
+        for(int i = 0; i < keys.length; i++) {
+            if(!isValidKey(keys[i])) {
+                throw new IllegalArgumentException("Key must be 4 digits long");
+            }
+            if(values[i] == null) {
+                throw new IllegalArgumentException("No null");
+            }
+        }
+        ensureCapacity((long) size + keys.length);
+        for(int i = 0; i < keys.length; i++) {
+            insert(keys[i], values[i]);
+        }
+    }
+
+    //puts every entry of other into this map, sized once like putAll
+    public void putAll(IntStringMap other) {
+        if(other == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        if(other == this) {
+            return;
+        }
+        ensureCapacity((long) size + other.getSize());
+        other.forEach(this::insert);
+    }
+
+    //sizes the table for expectedSize entries in total. does nothing if
+    //it is already big enough
+    public void reserve(int expectedSize) {
+        if(expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size can't be negative");
+        }
+        ensureCapacity(expectedSize);
+    }
+
+    //one resize to the smallest table that holds total entries under
+    //MAX_LOAD. there are never more than KEY_RANGE keys, so that caps it
+    private void ensureCapacity(long total) {
+        long needed = (long) Math.ceil(Math.min(total, KEY_RANGE) / MAX_LOAD);
+        int length = keys.length;
+        while(length < needed) {
+            length *= 2;
+        }
+        if(length > keys.length) {
+            rehash(length);
+        }
+    }
+
+    public String get(int key) {
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        int index = indexOf(key);
+        if(stats != null) {
+            stats.lookup(index >= 0);
+        }
+        return index < 0 ? null : values[index];
+    }
+
+    public boolean containsKey(int key) {
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        boolean found = indexOf(key) >= 0;
+        if(stats != null) {
+            stats.lookup(found);
+        }
+        return found;
+    }
+
+    public ArrayList<Integer> getValues(String target) {
+        int[] found = getKeysForValue(target);
+        ArrayList<Integer> keys = new ArrayList<Integer>(found.length);
+        for(int key : found) {
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    //same keys as getValues but as an int[] with no boxing
+    public int[] getKeysForValue(String target) {
+        if(target == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        IntBag found = new IntBag();
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != EMPTY && values[i].equals(target)) {
+                found.add(keys[i]);
+            }
+        }
+        return found.toArray();
+    }
+
+    public void remove(int key) {
+        if(!isValidKey(key)) {
+            throw new IllegalArgumentException("Key must be 4 digits long");
+        }
+        int hole = indexOf(key);
+        if(hole < 0) {
+            return;
+        }
+        int mask = keys.length - 1;
+        int index = hole;
+        //shift every later key of the run back into the hole, unless
+        //that would move it in front of its own home slot
+        while(true) {
+            index = (index + 1) & mask;
+            int k = keys[index];
+            if(k == EMPTY) {
+                break;
+            }
+            int home = hash(k);
+            if(((index - home) & mask) >= ((index - hole) & mask)) {
+                keys[hole] = k;
+                values[hole] = values[index];
+                hole = index;
+            }
+        }
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        size--;
+    }
+
+    //moves every entry into a table of newSize slots, a power of two
+    private void rehash(int newSize) {
+        long start = stats == null ? 0 : System.nanoTime();
+        int[] oldKeys = keys;
+        String[] oldValues = values;
+        keys = new int[newSize];
+        values = new String[newSize];
+        shift = 32 - Integer.numberOfTrailingZeros(newSize);
+        int mask = newSize - 1;
+        //reinsert every key, no need to check for duplicates
+        for(int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if(k != EMPTY) {
+                int index = hash(k);
+                while(keys[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = k;
+                values[index] = oldValues[i];
+            }
+        }
+        if(stats != null) {
+            stats.rehashed(start);
+        }
+    }
+
+    public String toString() {
+        StringBuilder log = new StringBuilder();
+        //one line per slot, in the same format as ChainedHashMap
+        for(int i = 0; i < keys.length; i++) {
+            log.append(i).append(" -> ");
+            if(keys[i] != EMPTY) {
+                log.append("(").append(keys[i]).append(", ").
+                    append(values[i]).append(") ");
+            }
+            log.append("\n");
+        }
+        return log.toString();
+    }
+
+    //calls action with every key and value, in the same order as the
+    //iterator, without allocating anything
+    public void forEach(IntObjConsumer<? super String> action) {
+        if(action == null) {
+            throw new IllegalArgumentException("No null");
+        }
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != EMPTY) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    //a new cursor at the start of the map
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A reusable position in the map, for walking it without allocating. Same order as the
+     * iterator, and the map must not be changed during a walk.<br>
+     */
+    public final class Cursor implements IntStringMap.Cursor {
+        /** Slot to look at next */
+        private int slot;
+        private int key;
+        /** Value of the current entry, null before the first advance and after the last */
+        private String value;
+
+        private Cursor() {
+            reset();
+        }
+
+        //back to before the first entry
+        public void reset() {
+            slot = 0;
+            value = null;
+        }
+
+        //moves to the next entry, false if there isn't one
+        public boolean advance() {
+            while(slot < keys.length) {
+                int i = slot++;
+                if(keys[i] != EMPTY) {
+                    key = keys[i];
+                    value = values[i];
+                    return true;
+                }
+            }
+            value = null;
+            return false;
+        }
+
+        public int key() {
+            if(value == null) {
+                throw new NoSuchElementException("No current entry");
+            }
+            return key;
+        }
+
+        public String value() {
+            if(value == null) {
+                throw new NoSuchElementException("No current entry");
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public Iterator<ChainedHashMap.Entry> iterator() {
+        return new Iterator<ChainedHashMap.Entry>() {
+            int index = 0;
+            //skips over empty slots
+            public boolean hasNext() {
+                while(index < keys.length && keys[index] == EMPTY) {
+                    index++;
+                }
+                return index < keys.length;
+            }
+            public ChainedHashMap.Entry next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException("No more elements");
+                }
+                ChainedHashMap.Entry e =
+                        new ChainedHashMap.Entry(keys[index], values[index]);
+                index++;
+                return e;
+            }
+        };
+    }
+
+    //entries in the iterator's order, split by slot ranges. the map must
+    //not be changed while it is in use
+    @Override
+    public Spliterator<ChainedHashMap.Entry> spliterator() {
+        return new EntrySpliterator(new Range(0, keys.length, size));
+    }
+
+    public Stream<ChainedHashMap.Entry> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<ChainedHashMap.Entry> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    //the keys in the iterator's order, without boxing
+    public IntStream keyStream() {
+        return StreamSupport.intStream(new KeySpliterator(new Range(0, keys.length, size)), false);
+    }
+
+    /**
+     * Walks slots [from, to) for the spliterators. trySplit hands out the first half of the
+     * slots left. The number of entries left is exact, counted the first time it is asked for.
+     */
+    private final class Range {
+        /** Slot to look at next */
+        private int from;
+        private final int to;
+        /** Entries left, -1 until counted */
+        private long remaining;
+        private int key;
+        private String value;
+
+        Range(int from, int to, long remaining) {
+            this.from = from;
+            this.to = to;
+            this.remaining = remaining;
+        }
+
+        //moves to the next entry, false if there isn't one
+        boolean advance() {
+            while(from < to) {
+                int i = from++;
+                if(keys[i] != EMPTY) {
+                    key = keys[i];
+                    value = values[i];
+                    if(remaining > 0) {
+                        remaining--;
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        //the first half of the slots left, or null if there is nothing
+        //worth splitting
+        Range split() {
+            if(to - from < 2) {
+                return null;
+            }
+            int mid = (from + to) >>> 1;
+            Range prefix = new Range(from, mid, -1);
+            from = mid;
+            remaining = -1;
+            return prefix;
+        }
+
+        long size() {
+            if(remaining < 0) {
+                long n = 0;
+                for(int i = from; i < to; i++) {
+                    if(keys[i] != EMPTY) {
+                        n++;
+                    }
+                }
+                remaining = n;
+            }
+            return remaining;
+        }
+    }
+
+    private final class EntrySpliterator implements Spliterator<ChainedHashMap.Entry> {
+        private final Range range;
+
+        EntrySpliterator(Range range) {
+            this.range = range;
+        }
+
+        public boolean tryAdvance(Consumer<? super ChainedHashMap.Entry> action) {
+            if(!range.advance()) {
+                return false;
+            }
+            action.accept(new ChainedHashMap.Entry(range.key, range.value));
+            return true;
+        }
+
+        public Spliterator<ChainedHashMap.Entry> trySplit() {
+            Range prefix = range.split();
+            return prefix == null ? null : new EntrySpliterator(prefix);
+        }
+
+        public long estimateSize() {
+            return range.size();
+        }
+
+        public int characteristics() {
+            return CHARACTERISTICS;
+        }
+    }
+
+    private final class KeySpliterator implements Spliterator.OfInt {
+        private final Range range;
+
+        KeySpliterator(Range range) {
+            this.range = range;
+        }
+
+        public boolean tryAdvance(IntConsumer action) {
+            if(!range.advance()) {
+                return false;
+            }
+            action.accept(range.key);
+            return true;
+        }
+
+        public Spliterator.OfInt trySplit() {
+            Range prefix = range.split();
+            return prefix == null ? null : new KeySpliterator(prefix);
+        }
+
+        public long estimateSize() {
+            return range.size();
+        }
+
+        public int characteristics() {
+            return CHARACTERISTICS;
+        }
+    }
+
+    //what the stats read from the map. reads keys once, so a rehash on
+    //another thread can't leave it looking at half of two tables
+    private class StatsSource implements HashTableStats.Source {
+        public int size() {
+            return size;
+        }
+        public int tableLength() {
+            return keys.length;
+        }
+        public int tombstones() {
+            return 0;
+        }
+
+        //lengths of the runs of taken slots between two empty slots. the
+        //table is never more than half full, so there is always an empty one
+        public int[] chainLengthHistogram() {
+            int[] k = keys;
+            int length = k.length;
+            int start = 0;
+            while(start < length && k[start] != EMPTY) {
+                start++;
+            }
+            if(start == length) {
+                return HashTableStats.increment(new int[1], length, 1);
+            }
+            int[] counts = new int[2];
+            int run = 0;
+            for(int step = 1; step <= length; step++) {
+                int i = (start + step) & (length - 1);
+                if(k[i] == EMPTY) {
+                    counts = HashTableStats.increment(counts, run, 1);
+                    run = 0;
+                } else {
+                    run++;
+                }
+            }
+            return HashTableStats.trim(counts);
+        }
+
+        //slots get looks at to find each key: its distance from its home
+        //slot plus one
+        public int[] probeLengthHistogram() {
+            int[] k = keys;
+            int mask = k.length - 1;
+            int tableShift = 32 - Integer.numberOfTrailingZeros(k.length);
+            int[] counts = new int[2];
+            for(int i = 0; i < k.length; i++) {
+                if(k[i] != EMPTY) {
+                    int home = (k[i] * GOLDEN) >>> tableShift;
+                    counts = HashTableStats.increment(counts, ((i - home) & mask) + 1, 1);
+                }
+            }
+            return HashTableStats.trim(counts);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package systemImp;
+
+/**
+ * The open-addressing set shared by PackedHashSet and OffHeapHashSet.<br>
+ *
+ * - Same key rules and exceptions as MyHashSet: 1 to 5 letters from a to z.<br>
+ * - Each slot holds the key's KeyCodec code. 0 marks an empty slot and -1 a deleted one,
+ * neither is ever a valid code.<br>
+ * - Uses linear probing on prime sizes, starting at 2.<br>
+ * - Deleted slots count towards the load, so they can't fill the table. A rehash at the same size
+ * clears them when they are what pushes the load over the threshold.<br>
+ * - Subclasses only decide where the slots live: T is the table type, and allocate, slot and setSlot
+ * create and access it. release is called on a table once it has been replaced.<br>
+ */
+abstract class PackedCodeSet<T> {
+
+    static final int EMPTY = 0;     // Sentinel for empty entries
+    static final int DELETED = -1;  // Sentinel for deleted entries
+
+    // Prime sizes for resizing: 2, 5, 11, 23, 47, 97, 197, 397, 797, 1597, ...
+    private static final int[] PRIMES = Primes.LADDER;
+
+    private T table;                     // Key codes, EMPTY or DELETED. null once detached
+    private int capacity;                // Number of slots in table
+    private int size;                    // The current number of elements in the set
+    private int tombstones;              // The current number of DELETED slots
+    private int primeIndex;              // Index of the current prime number used for table size
+    private double loadFactorThreshold;  // The threshold at which to rehash the table
+
+    PackedCodeSet() {
+        table = allocate(PRIMES[0]);
+        capacity = PRIMES[0];
+        this.size = 0;
+        this.tombstones = 0;
+        this.primeIndex = 0;
+        this.loadFactorThreshold = 0.75;
+    }
+
+    //a table with room for slots codes, all EMPTY
+    abstract T allocate(int slots);
+
+    abstract int slot(T table, int index);
+
+    abstract void setSlot(T table, int index, int code);
+
+    //called with a table that is no longer used. nothing to do by default
+    void release(T table) {
+    }
+
+    //takes the table away from the set and empties it. every method that
+    //needs the table throws IllegalStateException after this
+    final T detach() {
+        T old = table;
+        table = null;
+        size = 0;
+        tombstones = 0;
+        return old;
+    }
+
+    final void checkOpen() {
+        if(table == null) {
+            throw new IllegalStateException("Set is closed");
+        }
+    }
+
+    //number of slots in the table, 0 once detached
+    final int capacity() {
+        return table == null ? 0 : capacity;
+    }
+
+    public void setLoadFactorThreshold(double threshold) {
+        //same predefined values as MyHashSet
+        double[] allowed = {0.45, 0.60, 0.75, 0.85};
+        for(double value : allowed) {
+            if(Math.abs(value - threshold) < 0.00001) {
+                this.loadFactorThreshold = value;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Not a predefined threshold value");
+    }
+
+    public double getLoadFactor() {
+        checkOpen();
+        return size / (double) capacity;
+    }
+
+    public int size() {
+        checkOpen();
+        return this.size;
+    }
+
+    public String toString() {
+        checkOpen();
+        StringBuilder log = new StringBuilder();
+        for(int i = 0; i < capacity; i++) {
+            log.append("Index ").append(i).append(": ");
+            int code = slot(table, i);
+            if(code == EMPTY) {
+                log.append("null");
+            } else if(code == DELETED) {
+                log.append("DELETED");
+            } else {
+                log.append(KeyCodec.decode(code));
+            }
+            log.append("\n");
+        }
+        return log.toString();
+    }
+
+    //turns a key into its code, or throws for an invalid key
+    private static int validCode(int code) {
+        if(code == KeyCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid Key");
+        }
+        return code;
+    }
+
+    public void add(CharSequence key) {
+        checkOpen();
+        addCode(validCode(KeyCodec.encode(key)));
+    }
+
+    public void add(char[] chars, int offset, int length) {
+        checkOpen();
+        addCode(validCode(KeyCodec.encode(chars, offset, length)));
+    }
+
+    public boolean contains(CharSequence key) {
+        checkOpen();
+        return indexOf(validCode(KeyCodec.encode(key))) >= 0;
+    }
+
+    public boolean contains(char[] chars, int offset, int length) {
+        checkOpen();
+        return indexOf(validCode(KeyCodec.encode(chars, offset, length))) >= 0;
+    }
+
+    public void remove(CharSequence key) {
+        checkOpen();
+        removeCode(validCode(KeyCodec.encode(key)));
+    }
+
+    public void remove(char[] chars, int offset, int length) {
+        checkOpen();
+        removeCode(validCode(KeyCodec.encode(chars, offset, length)));
+    }
+
+    public boolean containsAll(String[] keys) {
+        checkOpen();
+        if(keys == null) {
+            return false;
+        }
+        for(String key : keys) {
+            int code = KeyCodec.encode(key);
+            if(code == KeyCodec.INVALID || indexOf(code) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //slot holding code, or -1. the table always has an EMPTY slot
+    private int indexOf(int code) {
+        T t = table;
+        int index = code % capacity;
+        int s;
+        while((s = slot(t, index)) != EMPTY) {
+            if(s == code) {
+                return index;
+            }
+            index = (index + 1) % capacity;
+        }
+        return -1;
+    }
+
+    private void addCode(int code) {
+        T t = table;
+        int index = code % capacity;
+        int firstDelete = -1;
+        int s;
+        while((s = slot(t, index)) != EMPTY) {
+            if(s == code) {
+                return;
+            }
+            if(s == DELETED && firstDelete == -1) {
+                firstDelete = index;
+            }
+            index = (index + 1) % capacity;
+        }
+        //reuse the first deleted slot on the way if there was one
+        if(firstDelete != -1) {
+            setSlot(t, firstDelete, code);
+            tombstones--;
+        } else {
+            setSlot(t, index, code);
+        }
+        size++;
+        if(size + tombstones > loadFactorThreshold * capacity) {
+            rehash();
+        }
+    }
+
+    private void removeCode(int code) {
+        int index = indexOf(code);
+        if(index >= 0) {
+            setSlot(table, index, DELETED);
+            size--;
+            tombstones++;
+        }
+    }
+
+    //grows to the next prime if the live keys alone are over the threshold,
+    //otherwise rebuilds at the same size just to drop the DELETED slots.
+    //the old table is released as soon as everything has been copied
+    private void rehash() {
+        if(size > loadFactorThreshold * capacity) {
+            primeIndex++;
+        }
+        T oldTable = table;
+        int oldCapacity = capacity;
+        int newSize = PRIMES[primeIndex];
+        T newTable = allocate(newSize);
+        for(int i = 0; i < oldCapacity; i++) {
+            int code = slot(oldTable, i);
+            if(code != EMPTY && code != DELETED) {
+                int index = code % newSize;
+                while(slot(newTable, index) != EMPTY) {
+                    index = (index + 1) % newSize;
+                }
+                setSlot(newTable, index, code);
+            }
+        }
+        table = newTable;
+        capacity = newSize;
+        tombstones = 0;
+        release(oldTable);
+    }
+}
@@ -0,0 +1,36 @@
+package systemImp;
+
+/**
+ * A version of MyHashSet that stores each key packed into one int.<br>
+ *
+ * - Same key rules and exceptions as MyHashSet: 1 to 5 letters from a to z.<br>
+ * - Keys are stored as their KeyCodec code in an int[] table, so there is no String per element,
+ * and comparing two keys is one int compare.<br>
+ * - 0 marks an empty slot and -1 a deleted one. Neither is ever a valid code.<br>
+ * - Keys can be passed as any CharSequence or as a slice of a char[], without building a String.<br>
+ * - Uses open addressing with linear probing on prime sizes, starting at 2. The probing and
+ * rehashing live in PackedCodeSet, shared with OffHeapHashSet.<br>
+ * - Deleted slots count towards the load, so they can't fill the table. A rehash at the same size
+ * clears them when they are what pushes the load over the threshold.<br>
+ */
+public class PackedHashSet extends PackedCodeSet<int[]> {
+
+    public PackedHashSet() {
+        super();
+    }
+
+    @Override
+    int[] allocate(int slots) {
+        return new int[slots];
+    }
+
+    @Override
+    int slot(int[] table, int index) {
+        return table[index];
+    }
+
+    @Override
+    void setSlot(int[] table, int index, int code) {
+        table[index] = code;
+    }
+}
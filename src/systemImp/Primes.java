@@ -0,0 +1,69 @@
+package systemImp;
+
+/**
+ * Prime table sizes shared by the hash tables.<br>
+ *
+ * - LADDER is the "double prime" sequence 2, 5, 11, 23, 47, 97, 197, 397, 797, 1597, ...<br>
+ * - Each step is the smallest prime &gt;= 2 * previous + 1.<br>
+ * - It is generated once up to the largest size an array can have, so tables never run out of sizes.<br>
+ */
+final class Primes {
+
+    /** Largest table length we will ever ask for */
+    private static final int MAX_LENGTH = Integer.MAX_VALUE / 2;
+
+    /** Prime sizes for resizing, smallest first */
+    static final int[] LADDER = buildLadder();
+
+    private Primes() {
+    }
+
+    private static int[] buildLadder() {
+        int[] ladder = new int[32];
+        int count = 0;
+        int p = 2;
+        while(true) {
+            ladder[count++] = p;
+            if(p > (MAX_LENGTH - 1) / 2) {
+                break;
+            }
+            p = nextPrime(2 * p + 1);
+        }
+        int[] result = new int[count];
+        System.arraycopy(ladder, 0, result, 0, count);
+        return result;
+    }
+
+    //trial division is plenty for the 30 or so primes we ever need
+    static boolean isPrime(int n) {
+        if(n < 2) {
+            return false;
+        }
+        if(n % 2 == 0) {
+            return n == 2;
+        }
+        for(int d = 3; (long) d * d <= n; d += 2) {
+            if(n % d == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //smallest prime >= n
+    static int nextPrime(int n) {
+        while(!isPrime(n)) {
+            n++;
+        }
+        return n;
+    }
+
+    //index of the smallest prime in LADDER that is >= minLength
+    static int indexFor(int minLength) {
+        int i = 0;
+        while(i < LADDER.length - 1 && LADDER[i] < minLength) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -3,7 +3,15 @@ package tests;
 import static org.junit.Assert.*;
 //i saw an earlier piazza post that said it was fine to import any java.util.*
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import org.junit.Test;
 import org.junit.FixMethodOrder;
@@ -252,6 +260,1265 @@ public class StudentTests {
 		}
 	}
 	
+	@Test
+	public void testingDenseMode() {
+		ChainedHashMap map = new ChainedHashMap();
+		//chains up to 1200 keys
+		for(int key = 1000; key < 2200; key++) {
+			map.put(key, "v" + key);
+		}
+		assertEquals(797, map.getTableLength());
+		//one more switches to the direct-addressed table
+		map.put(2200, "v2200");
+		assertEquals(9000, map.getTableLength());
+		assertEquals(1201, map.getSize());
+		assertEquals("v1234", map.get(1234));
+		assertTrue(map.containsKey(2200));
+		assertFalse(map.containsKey(9999));
+		map.put(2200, "again");
+		assertEquals(1201, map.getSize());
+		ArrayList<Integer> ans = new ArrayList<>();
+		ans.add(2200);
+		assertEquals(ans, map.getValues("again"));
+		int count = 0;
+		Iterator<ChainedHashMap.Entry> iter = map.iterator();
+		while(iter.hasNext()) {
+			iter.next();
+			count++;
+		}
+		assertEquals(1201, count);
+		//back to chains once it is sparse again
+		for(int key = 1000; key < 1602; key++) {
+			map.remove(key);
+		}
+		assertEquals(599, map.getSize());
+		assertEquals(397, map.getTableLength());
+		assertEquals("v1700", map.get(1700));
+		assertNull(map.get(1000));
+		assertEquals(ans, map.getValues("again"));
+	}
+	
+	//how many entries ChainedHashMap's slot arrays have room for. there is
+	//no public way to see this, so it is read straight from the field
+	private static int slotCapacity(ChainedHashMap map) throws Exception {
+		java.lang.reflect.Field field = ChainedHashMap.class.getDeclaredField("slotKey");
+		field.setAccessible(true);
+		return ((int[]) field.get(map)).length;
+	}
+	
+	@Test
+	public void testingUnboundedGrowthAndShrink() throws Exception {
+		ChainedHashMap map = new ChainedHashMap();
+		map.setDenseMode(false);
+		//all 9000 keys stay chained with short chains
+		for(int key = 1000; key <= 9999; key++) {
+			map.put(key, "v");
+		}
+		assertEquals(9000, map.getSize());
+		assertEquals(3203, map.getTableLength());
+		assertTrue(map.getSize() / (double) map.getTableLength() <= 3);
+		assertEquals("v", map.get(9999));
+		//removing most of them gives the memory back
+		for(int key = 1000; key < 9990; key++) {
+			map.remove(key);
+		}
+		assertEquals(10, map.getSize());
+		assertEquals(11, map.getTableLength());
+		//the entry storage shrinks with the buckets
+		assertTrue(slotCapacity(map) < 64);
+		for(int key = 9990; key <= 9999; key++) {
+			assertTrue(map.containsKey(key));
+		}
+		//and grows again from there
+		for(int key = 5000; key < 5500; key++) {
+			map.put(key, "x");
+		}
+		assertEquals(510, map.getSize());
+		assertEquals("x", map.get(5499));
+		assertEquals("v", map.get(9999));
+		//turning dense mode back on converts a big map right away
+		for(int key = 1000; key < 2000; key++) {
+			map.put(key, "w");
+		}
+		map.setDenseMode(true);
+		assertEquals(9000, map.getTableLength());
+		assertEquals("w", map.get(1999));
+	}
+	
+	@Test
+	public void testingValueIndex() {
+		ChainedHashMap map = new ChainedHashMap();
+		map.put(1000, "dog");
+		map.put(2000, "cat");
+		//index built from what is already there
+		map.setValueIndex(true);
+		map.put(3000, "dog");
+		map.put(4000, "cat");
+		assertArrayEquals(new int[] {2000, 4000}, sorted(map.getKeysForValue("cat")));
+		//overwriting moves the key to its new value
+		map.put(2000, "dog");
+		assertArrayEquals(new int[] {4000}, map.getKeysForValue("cat"));
+		assertArrayEquals(new int[] {1000, 2000, 3000}, sorted(map.getKeysForValue("dog")));
+		assertEquals(3, map.getValues("dog").size());
+		map.remove(4000);
+		assertEquals(0, map.getKeysForValue("cat").length);
+		assertTrue(map.getValues("cat").isEmpty());
+		//still current across the switch to the direct-addressed table
+		for(int key = 5000; key < 6000; key++) {
+			map.put(key, key % 2 == 0 ? "even" : "odd");
+		}
+		assertEquals(500, map.getKeysForValue("even").length);
+		map.remove(5000);
+		map.put(5001, "even");
+		assertEquals(500, map.getKeysForValue("even").length);
+		assertEquals(499, map.getKeysForValue("odd").length);
+		//turned off it falls back to scanning
+		map.setValueIndex(false);
+		assertEquals(500, map.getKeysForValue("even").length);
+	}
+	
+	private static int[] sorted(int[] keys) {
+		Arrays.sort(keys);
+		return keys;
+	}
+	
+	@Test
+	public void testingIncrementalRehash() {
+		ChainedHashMap map = new ChainedHashMap();
+		ChainedHashMap plain = new ChainedHashMap();
+		map.setDenseMode(false);
+		plain.setDenseMode(false);
+		map.setIncrementalRehash(true);
+		//same answers as a map that rehashes all at once, at every step
+		for(int key = 1000; key < 4000; key++) {
+			map.put(key, "v" + key);
+			plain.put(key, "v" + key);
+			assertEquals("v" + key, map.get(key));
+			assertTrue(map.containsKey(1000 + (key * 7) % (key - 999)));
+		}
+		assertEquals(plain.getTableLength(), map.getTableLength());
+		//overwrite and remove keys, some still in the old table
+		for(int key = 1000; key < 4000; key += 3) {
+			map.put(key, "three");
+			plain.put(key, "three");
+		}
+		for(int key = 1000; key < 4000; key += 5) {
+			map.remove(key);
+			plain.remove(key);
+		}
+		assertEquals(plain.getSize(), map.getSize());
+		assertEquals(plain.getValues("three").size(), map.getValues("three").size());
+		int count = 0;
+		for(ChainedHashMap.Entry e : map) {
+			assertEquals(plain.get(e.getKey()), map.get(e.getKey()));
+			count++;
+		}
+		assertEquals(plain.getSize(), count);
+		//once done the layout is a valid chained table
+		map.setIncrementalRehash(false);
+		for(int key = 1000; key < 4000; key++) {
+			assertEquals(plain.get(key), map.get(key));
+		}
+	}
+	
+	@Test
+	public void testingStats() throws Exception {
+		ChainedHashMap map = new ChainedHashMap();
+		assertNull(map.getStats());
+		map.setDenseMode(false);
+		map.put(1000, "a");
+		map.setStatsEnabled(true);
+		HashTableStats stats = map.getStats();
+		for(int key = 1001; key < 1100; key++) {
+			map.put(key, "v");
+		}
+		assertEquals(100, stats.getSize());
+		assertEquals(map.getTableLength(), stats.getTableLength());
+		assertEquals(0, stats.getTombstones());
+		assertTrue(stats.getRehashCount() > 0);
+		assertTrue(stats.getRehashTimeNanos() > 0);
+		map.get(1000);
+		map.get(2000);
+		map.containsKey(1050);
+		assertEquals(2, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		//every bucket shows up once, every key once in the probe histogram
+		int[] chains = stats.getChainLengthHistogram();
+		int buckets = 0;
+		int keys = 0;
+		for(int i = 0; i < chains.length; i++) {
+			buckets += chains[i];
+			keys += i * chains[i];
+		}
+		assertEquals(map.getTableLength(), buckets);
+		assertEquals(100, keys);
+		int[] probes = stats.getProbeLengthHistogram();
+		assertEquals(0, probes[0]);
+		assertEquals(100, Arrays.stream(probes).sum());
+		assertEquals(chains.length, probes.length);
+		//the same numbers over JMX
+		javax.management.ObjectName name = stats.register("testingStats");
+		javax.management.MBeanServer server =
+				java.lang.management.ManagementFactory.getPlatformMBeanServer();
+		assertEquals(2L, server.getAttribute(name, "Hits"));
+		assertEquals(100, server.getAttribute(name, "Size"));
+		server.invoke(name, "reset", null, null);
+		assertEquals(0, stats.getHits());
+		map.setStatsEnabled(false);
+		assertFalse(server.isRegistered(name));
+		assertNull(map.getStats());
+	}
+
+	@Test
+	public void testingStatsWhileSwitching() throws Exception {
+		//JMX reads from its own thread while the map goes back and forth
+		//between chains and the direct-addressed table
+		ChainedHashMap map = new ChainedHashMap();
+		map.setStatsEnabled(true);
+		HashTableStats stats = map.getStats();
+		java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+		Thread reader = new Thread(() -> {
+			while(!done.get()) {
+				stats.getTableLength();
+				stats.getChainLengthHistogram();
+				stats.getProbeLengthHistogram();
+			}
+		});
+		Throwable[] failure = new Throwable[1];
+		reader.setUncaughtExceptionHandler((t, e) -> failure[0] = e);
+		reader.start();
+		for(int round = 0; round < 200; round++) {
+			for(int key = 1000; key < 1800; key++) {
+				map.put(key, "v");
+			}
+			for(int key = 1000; key < 1700; key++) {
+				map.remove(key);
+			}
+		}
+		done.set(true);
+		reader.join();
+		assertNull(failure[0]);
+	}
+
+	@Test
+	public void testingPutAll() {
+		int[] keys = new int[600];
+		String[] values = new String[600];
+		for(int i = 0; i < keys.length; i++) {
+			//every key twice, the second value wins like with put
+			keys[i] = 1000 + (i % 300) * 7;
+			values[i] = "v" + i;
+		}
+		ChainedHashMap map = new ChainedHashMap();
+		ChainedHashMap plain = new ChainedHashMap();
+		map.put(1001, "first");
+		plain.put(1001, "first");
+		map.setStatsEnabled(true);
+		map.putAll(keys, values);
+		for(int i = 0; i < keys.length; i++) {
+			plain.put(keys[i], values[i]);
+		}
+		//one resize instead of one per prime
+		assertEquals(1, map.getStats().getRehashCount());
+		assertEquals(plain.getSize(), map.getSize());
+		for(int key = 1000; key < 10000; key++) {
+			assertEquals(plain.get(key), map.get(key));
+		}
+		//a bad entry anywhere changes nothing
+		try {
+			map.putAll(new int[] {2000, 99}, new String[] {"a", "b"});
+			fail();
+		} catch(IllegalArgumentException e) {
+			assertNull(map.get(2000));
+		}
+		try {
+			map.putAll(new int[] {2000}, new String[] {null});
+			fail();
+		} catch(IllegalArgumentException e) {
+			assertNull(map.get(2000));
+		}
+		//copying a map big enough goes straight to the direct-addressed table
+		ChainedHashMap big = new ChainedHashMap();
+		for(int key = 1000; key < 2000; key++) {
+			big.put(key, "b");
+		}
+		map.putAll(big);
+		assertEquals(9000, map.getTableLength());
+		assertEquals("b", map.get(1001));
+		//1001 and the 143 keys 1000 + 7k below 2000 were there already
+		assertEquals(plain.getSize() + 1000 - 144, map.getSize());
+	}
+	
+	@Test
+	public void testingReserve() {
+		ChainedHashMap map = new ChainedHashMap(600);
+		map.setDenseMode(false);
+		map.setStatsEnabled(true);
+		int length = map.getTableLength();
+		assertTrue(600.0 / length <= 3);
+		for(int key = 1000; key < 1600; key++) {
+			map.put(key, "v");
+		}
+		//no rehash on the way to the expected size
+		assertEquals(0, map.getStats().getRehashCount());
+		assertEquals(length, map.getTableLength());
+		//and remove doesn't shrink below it
+		for(int key = 1000; key < 1600; key++) {
+			map.remove(key);
+		}
+		assertEquals(length, map.getTableLength());
+		//reserve only ever grows the table
+		map.reserve(10);
+		assertEquals(length, map.getTableLength());
+		map.reserve(3000);
+		assertTrue(map.getTableLength() > length);
+		try {
+			map.reserve(-1);
+			fail();
+		} catch(IllegalArgumentException e) {
+		}
+		//expecting more than DENSE_ON keys starts out direct-addressed
+		assertEquals(9000, new ChainedHashMap(5000).getTableLength());
+		assertEquals(2, new ChainedHashMap(0).getTableLength());
+		//there are only 9000 keys, so a huge reserve sizes for 9000
+		ChainedHashMap huge = new ChainedHashMap();
+		huge.setDenseMode(false);
+		huge.reserve(50000000);
+		assertEquals(3203, huge.getTableLength());
+		huge.reserve(Integer.MAX_VALUE);
+		assertEquals(3203, huge.getTableLength());
+		for(int key = 1000; key < 10000; key++) {
+			huge.put(key, "v");
+		}
+		assertEquals(3203, huge.getTableLength());
+	}
+	
+	@Test
+	public void testingForEachAndCursor() {
+		ChainedHashMap map = new ChainedHashMap();
+		map.setDenseMode(false);
+		for(int key = 1000; key < 1500; key++) {
+			map.put(key, "v" + (key % 7));
+		}
+		//same entries in the same order as the iterator
+		ArrayList<Integer> order = new ArrayList<>();
+		for(ChainedHashMap.Entry e : map) {
+			order.add(e.getKey());
+		}
+		ArrayList<Integer> seen = new ArrayList<>();
+		map.forEach((key, value) -> {
+			assertEquals("v" + (key % 7), value);
+			seen.add(key);
+		});
+		assertEquals(order, seen);
+		ChainedHashMap.Cursor cursor = map.cursor();
+		try {
+			cursor.key();
+			fail();
+		} catch(NoSuchElementException e) {
+		}
+		for(int i = 0; i < order.size(); i++) {
+			assertTrue(cursor.advance());
+			assertEquals((int) order.get(i), cursor.key());
+			assertEquals(map.get(cursor.key()), cursor.value());
+		}
+		assertFalse(cursor.advance());
+		//no allocation for a full walk either way, chained or direct-addressed
+		long[] sum = new long[1];
+		IntObjConsumer<String> adder = (key, value) -> sum[0] += key;
+		assertEquals(0, walkAllocation(map, cursor, adder));
+		assertTrue(sum[0] > 0);
+		map.setDenseMode(true);
+		for(int key = 1500; key < 2300; key++) {
+			map.put(key, "v" + (key % 7));
+		}
+		assertEquals(9000, map.getTableLength());
+		cursor.reset();
+		int count = 0;
+		int last = 0;
+		while(cursor.advance()) {
+			assertTrue(cursor.key() > last);
+			last = cursor.key();
+			count++;
+		}
+		assertEquals(1300, count);
+		assertEquals(0, walkAllocation(map, cursor, adder));
+	}
+	
+	//bytes this thread allocates for a forEach and a cursor walk, warmed up
+	//and best of a few tries since the JVM sometimes allocates on its own
+	private static long walkAllocation(ChainedHashMap map, ChainedHashMap.Cursor cursor,
+			IntObjConsumer<String> action) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+				java.lang.management.ManagementFactory.getThreadMXBean();
+		long least = Long.MAX_VALUE;
+		for(int attempt = 0; attempt < 6 && least > 0; attempt++) {
+			long before = threads.getCurrentThreadAllocatedBytes();
+			for(int round = 0; round < 10; round++) {
+				map.forEach(action);
+				cursor.reset();
+				while(cursor.advance()) {
+					action.accept(cursor.key(), cursor.value());
+				}
+			}
+			long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+			//the first attempt is the warm-up
+			if(attempt > 0) {
+				least = Math.min(least, bytes);
+			}
+		}
+		return least;
+	}
+	
+	@Test
+	public void testingSortedChains() {
+		//keys that all land in bucket 0 of a 23 bucket table, in descending
+		//order so the sorted copy is the reverse of the chain
+		ArrayList<Integer> keys = new ArrayList<>();
+		for(int key = 9999; keys.size() < 60; key--) {
+			if(((2347 * key + 7919) % 104729) % 23 == 0) {
+				keys.add(key);
+			}
+		}
+		ChainedHashMap map = new ChainedHashMap(40);
+		map.setDenseMode(false);
+		assertEquals(23, map.getTableLength());
+		for(int i = 0; i < 40; i++) {
+			map.put(keys.get(i), "v" + i);
+		}
+		for(int i = 0; i < 40; i++) {
+			assertEquals("v" + i, map.get(keys.get(i)));
+		}
+		for(int i = 40; i < 60; i++) {
+			assertFalse(map.containsKey(keys.get(i)));
+		}
+		//the chain keeps insertion order, so toString looks the same
+		assertEquals(chainLine(keys, 0, 40), map.toString().split("\n")[0]);
+		map.put(keys.get(5), "v5");
+		//remove down past SORTED_OFF and back up past SORTED_ON
+		for(int i = 39; i >= 3; i--) {
+			map.remove(keys.get(i));
+			assertNull(map.get(keys.get(i)));
+			for(int j = 0; j < i; j++) {
+				assertEquals("v" + j, map.get(keys.get(j)));
+			}
+		}
+		assertEquals(23, map.getTableLength());
+		assertEquals(chainLine(keys, 0, 3), map.toString().split("\n")[0]);
+		for(int i = 3; i < 20; i++) {
+			map.put(keys.get(i), "v" + i);
+		}
+		for(int i = 0; i < 20; i++) {
+			assertEquals("v" + i, map.get(keys.get(i)));
+		}
+		assertEquals(chainLine(keys, 0, 20), map.toString().split("\n")[0]);
+		//rehashing, incrementally or not, keeps every key findable
+		map.setIncrementalRehash(true);
+		for(int key = 1000; key < 1400; key++) {
+			map.put(key, "x");
+			assertEquals("v0", map.get(keys.get(0)));
+		}
+		for(int i = 0; i < 20; i++) {
+			assertEquals("v" + i, map.get(keys.get(i)));
+		}
+	}
+	
+	@Test
+	public void testingStreams() {
+		for(boolean denseMode : new boolean[] {false, true}) {
+			ChainedHashMap map = new ChainedHashMap();
+			map.setDenseMode(denseMode);
+			assertEquals(0, map.stream().count());
+			long keySum = 0;
+			for(int key = 1000; key < 9000; key += 3) {
+				map.put(key, "v" + (key % 10));
+				keySum += key;
+			}
+			//same entries, in the iterator's order
+			ArrayList<Integer> walked = new ArrayList<>();
+			for(ChainedHashMap.Entry e : map) {
+				walked.add(e.getKey());
+			}
+			ArrayList<Integer> streamed = new ArrayList<>();
+			map.stream().forEachOrdered(e -> streamed.add(e.getKey()));
+			assertEquals(walked, streamed);
+			assertEquals(keySum, map.keyStream().asLongStream().sum());
+			assertEquals(keySum, map.keyStream().parallel().asLongStream().sum());
+			assertEquals(map.getSize(), map.parallelStream().count());
+			assertEquals(map.getValues("v1").size(), map.parallelStream()
+					.filter(e -> map.get(e.getKey()).equals("v1")).count());
+			assertArrayEquals(map.keyStream().toArray(), map.keyStream().parallel().toArray());
+			//every split knows exactly what it holds
+			java.util.Spliterator<ChainedHashMap.Entry> right = map.spliterator();
+			assertEquals(map.getSize(), right.getExactSizeIfKnown());
+			java.util.Spliterator<ChainedHashMap.Entry> left = right.trySplit();
+			assertNotNull(left);
+			long leftSize = left.getExactSizeIfKnown();
+			long rightSize = right.getExactSizeIfKnown();
+			assertEquals(map.getSize(), leftSize + rightSize);
+			long counted = 0;
+			while(left.tryAdvance(e -> { })) {
+				counted++;
+			}
+			assertEquals(leftSize, counted);
+			right.tryAdvance(e -> { });
+			assertEquals(rightSize - 1, right.estimateSize());
+		}
+	}
+	
+	@Test
+	public void testingSlotReuse() {
+		//random puts and removes, with and without incremental rehash, always
+		//agree with java.util.HashMap, while removed slots get handed out again
+		Random rand = new Random(20);
+		for(boolean incremental : new boolean[] {false, true}) {
+			ChainedHashMap map = new ChainedHashMap();
+			map.setDenseMode(false);
+			map.setIncrementalRehash(incremental);
+			java.util.HashMap<Integer, String> expected = new java.util.HashMap<>();
+			for(int i = 0; i < 20000; i++) {
+				int key = 1000 + rand.nextInt(i < 10000 ? 3000 : 300);
+				if(rand.nextInt(3) == 0) {
+					map.remove(key);
+					expected.remove(key);
+				} else {
+					map.put(key, "v" + i);
+					expected.put(key, "v" + i);
+				}
+				assertEquals(expected.get(key), map.get(key));
+			}
+			assertEquals(expected.size(), map.getSize());
+			int count = 0;
+			for(ChainedHashMap.Entry e : map) {
+				assertEquals(expected.get(e.getKey()), map.get(e.getKey()));
+				count++;
+			}
+			assertEquals(expected.size(), count);
+		}
+	}
+
+	@Test
+	public void testingSnapshot() throws Exception {
+		Path file = Files.createTempFile("map", ".snap");
+		try {
+			//empty map
+			MapSnapshot.write(new ChainedHashMap(), file);
+			assertEquals(0, MapSnapshot.read(file).getSize());
+			//chained, with non-ASCII values and one bigger than the write buffer
+			ChainedHashMap map = new ChainedHashMap();
+			map.setDenseMode(false);
+			for(int key = 1000; key < 1500; key += 3) {
+				map.put(key, "v" + key + "\u00e9\u4e2d");
+			}
+			StringBuilder big = new StringBuilder();
+			for(int i = 0; i < 100000; i++) {
+				big.append((char) ('a' + i % 26));
+			}
+			map.put(9999, big.toString());
+			MapSnapshot.write(map, file);
+			ChainedHashMap loaded = MapSnapshot.read(file);
+			assertEquals(map.getSize(), loaded.getSize());
+			for(ChainedHashMap.Entry e : map) {
+				assertEquals(map.get(e.getKey()), loaded.get(e.getKey()));
+			}
+			//dense, overwriting the old snapshot
+			ChainedHashMap dense = new ChainedHashMap();
+			for(int key = 1000; key < 10000; key++) {
+				dense.put(key, "d" + (key % 7));
+			}
+			MapSnapshot.write(dense, file);
+			loaded = MapSnapshot.read(file);
+			assertEquals(9000, loaded.getSize());
+			assertEquals(dense.getValues("d3"), loaded.getValues("d3"));
+			//anything else is rejected
+			Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+			try {
+				MapSnapshot.read(file);
+				fail();
+			} catch(IOException e) {
+				assertEquals("Not a ChainedHashMap snapshot", e.getMessage());
+			}
+			MapSnapshot.write(map, file);
+			byte[] bytes = Files.readAllBytes(file);
+			Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+			try {
+				MapSnapshot.read(file);
+				fail();
+			} catch(IOException e) {
+				assertEquals("Corrupt snapshot", e.getMessage());
+			}
+			//a write that fails doesn't leave its temporary file behind
+			Path blocked = Files.createTempDirectory("blocked");
+			Path inside = Files.createFile(blocked.resolve("inside"));
+			Path temp = blocked.resolveSibling(blocked.getFileName() + ".tmp");
+			try {
+				MapSnapshot.write(map, blocked);
+				fail();
+			} catch(IOException e) {
+				assertFalse(Files.exists(temp));
+				assertTrue(Files.exists(inside));
+			} finally {
+				Files.deleteIfExists(temp);
+				Files.delete(inside);
+				Files.delete(blocked);
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testingDurableMap() throws Exception {
+		Path dir = Files.createTempDirectory("durable");
+		Path crashed = Files.createTempDirectory("crashed");
+		try {
+			DurableChainedHashMap map = new DurableChainedHashMap(dir,
+					DurableChainedHashMap.Durability.PER_OP);
+			for(int key = 1000; key < 1300; key++) {
+				map.put(key, "v" + key);
+			}
+			for(int key = 1000; key < 1300; key += 4) {
+				map.remove(key);
+			}
+			try {
+				map.put(999, "x");
+				fail();
+			} catch(IllegalArgumentException e) {
+				assertEquals("Key must be 4 digits long", e.getMessage());
+			}
+			//copying the files while the map is still open is what a crash
+			//leaves behind, and every change that returned is in them
+			copyFiles(dir, crashed);
+			String expected = map.toString();
+			map.close();
+			DurableChainedHashMap recovered = new DurableChainedHashMap(crashed,
+					DurableChainedHashMap.Durability.NONE);
+			assertEquals(225, recovered.getSize());
+			assertEquals(expected, recovered.toString());
+			recovered.close();
+			//a torn record at the end of the log is dropped
+			Path log;
+			try(Stream<Path> files = Files.list(dir)) {
+				log = files.filter(f -> f.toString().endsWith(".log"))
+						.filter(f -> f.toFile().length() > 0).findFirst().get();
+			}
+			long length = log.toFile().length();
+			Files.write(log, new byte[] {0, 0, 0, 9, 1, 3},
+					StandardOpenOption.APPEND);
+			map = new DurableChainedHashMap(dir, DurableChainedHashMap.Durability.BATCHED);
+			assertEquals(length, log.toFile().length());
+			assertEquals(expected, map.toString());
+			//batched changes are on disk once put and remove return
+			map.put(5000, "batched");
+			map.remove(1001);
+			copyFiles(dir, crashed);
+			map.close();
+			recovered = new DurableChainedHashMap(crashed, DurableChainedHashMap.Durability.NONE);
+			assertEquals("batched", recovered.get(5000));
+			assertFalse(recovered.containsKey(1001));
+			recovered.close();
+			//compaction replaces the logs with one snapshot
+			map = new DurableChainedHashMap(dir, DurableChainedHashMap.Durability.NONE);
+			map.setCompactThreshold(4096);
+			for(int round = 0; round < 20; round++) {
+				for(int key = 2000; key < 2100; key++) {
+					map.put(key, "r" + round);
+				}
+			}
+			map.compact().get();
+			map.put(2000, "last");
+			expected = map.toString();
+			map.close();
+			int snapshots = 0;
+			try(Stream<Path> files = Files.list(dir)) {
+				for(Path f : (Iterable<Path>) files::iterator) {
+					if(f.toString().endsWith(".bin")) {
+						snapshots++;
+					}
+				}
+			}
+			assertEquals(1, snapshots);
+			map = new DurableChainedHashMap(dir, DurableChainedHashMap.Durability.NONE);
+			assertEquals(expected, map.toString());
+			assertEquals("last", map.get(2000));
+			assertEquals("r19", map.get(2099));
+			map.close();
+			try {
+				map.get(2000);
+				fail();
+			} catch(IllegalStateException e) {
+				assertEquals("Map is closed", e.getMessage());
+			}
+			//a bad record in a log with a newer one after it is not a torn
+			//tail, so the map refuses to open instead of dropping changes
+			deleteFiles(crashed);
+			map = new DurableChainedHashMap(crashed, DurableChainedHashMap.Durability.PER_OP);
+			map.put(3000, "first");
+			map.close();
+			map = new DurableChainedHashMap(crashed, DurableChainedHashMap.Durability.PER_OP);
+			map.put(3001, "second");
+			map.close();
+			Files.write(crashed.resolve("wal-0.log"), new byte[] {0, 0, 0, 9, 1, 3},
+					StandardOpenOption.APPEND);
+			long corrupt = crashed.resolve("wal-0.log").toFile().length();
+			try {
+				new DurableChainedHashMap(crashed, DurableChainedHashMap.Durability.NONE);
+				fail();
+			} catch(IOException e) {
+				assertTrue(e.getMessage().startsWith("Corrupt log wal-0.log"));
+			}
+			assertEquals(corrupt, crashed.resolve("wal-0.log").toFile().length());
+		} finally {
+			deleteFiles(dir);
+			deleteFiles(crashed);
+		}
+	}
+	
+	@Test
+	public void testingDurableGroupCommit() throws Exception {
+		Path dir = Files.createTempDirectory("durable");
+		Path crashed = Files.createTempDirectory("crashed");
+		try {
+			//threads writing at once all return with their change on disk
+			DurableChainedHashMap map = new DurableChainedHashMap(dir,
+					DurableChainedHashMap.Durability.BATCHED);
+			Thread[] threads = new Thread[4];
+			for(int t = 0; t < threads.length; t++) {
+				int first = 1000 + t * 100;
+				threads[t] = new Thread(() -> {
+					try {
+						for(int key = first; key < first + 50; key++) {
+							map.put(key, "t" + key);
+						}
+					} catch(IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				threads[t].start();
+			}
+			for(Thread t : threads) {
+				t.join();
+			}
+			copyFiles(dir, crashed);
+			map.close();
+			DurableChainedHashMap recovered = new DurableChainedHashMap(crashed,
+					DurableChainedHashMap.Durability.NONE);
+			assertEquals(200, recovered.getSize());
+			assertEquals("t1349", recovered.get(1349));
+			recovered.close();
+		} finally {
+			deleteFiles(dir);
+			deleteFiles(crashed);
+		}
+	}
+	
+	//replaces everything in to with a copy of the files in from
+	private static void copyFiles(Path from, Path to) throws Exception {
+		deleteFiles(to);
+		Files.createDirectories(to);
+		try(Stream<Path> files = Files.list(from)) {
+			for(Path f : (Iterable<Path>) files::iterator) {
+				Files.copy(f, to.resolve(f.getFileName()));
+			}
+		}
+	}
+	
+	private static void deleteFiles(Path dir) throws Exception {
+		if(!Files.exists(dir)) {
+			return;
+		}
+		try(Stream<Path> files = Files.list(dir)) {
+			for(Path f : (Iterable<Path>) files::iterator) {
+				Files.delete(f);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	//toString line of bucket 0 holding keys[from .. to - 1] with values v<i>
+	private static String chainLine(ArrayList<Integer> keys, int from, int to) {
+		StringBuilder line = new StringBuilder("0 -> ");
+		for(int i = from; i < to; i++) {
+			line.append("(").append(keys.get(i)).append(", v").append(i).append(") ");
+		}
+		return line.toString();
+	}
+	
+	//Testing OpenHashMap Class
+	
+	@Test
+	public void testingOpenHashMap() {
+		OpenHashMap map = new OpenHashMap();
+		try {
+			map.put(999, "no");
+		} catch(Exception e) {
+			assertEquals("Key must be 4 digits long", e.getMessage());
+		}
+		//same keys and values as the chained map
+		for(int key = 1000; key < 1100; key++) {
+			map.put(key, "v" + (key % 3));
+		}
+		map.put(1000, "new");
+		assertEquals(100, map.getSize());
+		assertEquals("new", map.get(1000));
+		assertEquals("v1", map.get(1099));
+		assertNull(map.get(2000));
+		//table stays at most half full
+		assertTrue(map.getSize() * 2 <= map.getTableLength());
+		assertEquals(33, map.getValues("v2").size());
+		//removing every other key must keep the rest reachable
+		for(int key = 1000; key < 1100; key += 2) {
+			map.remove(key);
+		}
+		assertEquals(50, map.getSize());
+		for(int key = 1000; key < 1100; key++) {
+			assertEquals(key % 2 == 1, map.containsKey(key));
+		}
+		int count = 0;
+		Iterator<ChainedHashMap.Entry> iter = map.iterator();
+		while(iter.hasNext()) {
+			assertTrue(iter.next().getKey() % 2 == 1);
+			count++;
+		}
+		assertEquals(50, count);
+		//empty map prints one line per slot
+		assertEquals("0 -> \n1 -> \n", new OpenHashMap().toString());
+	}
+
+	@Test
+	public void testingMapEngines() {
+		//the same calls through IntStringMap give the same entries on both engines
+		IntStringMap[] maps = {new ChainedHashMap(), new OpenHashMap(100)};
+		int[] keys = new int[300];
+		String[] values = new String[300];
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = 1000 + i * 29;
+			values[i] = "v" + (i % 7);
+		}
+		for(IntStringMap map : maps) {
+			map.setStatsEnabled(true);
+			map.putAll(keys, values);
+			map.put(1000, "new");
+			map.remove(1029);
+			assertEquals(299, map.getSize());
+			assertEquals("new", map.get(1000));
+			assertFalse(map.containsKey(1029));
+			assertEquals(1, map.getStats().getHits());
+			assertEquals(1, map.getStats().getMisses());
+			int[] found = map.getKeysForValue("v3");
+			Arrays.sort(found);
+			assertEquals(43, found.length);
+			assertEquals(1000 + 3 * 29, found[0]);
+			long sum = 0;
+			IntStringMap.Cursor cursor = map.cursor();
+			while(cursor.advance()) {
+				assertEquals(map.get(cursor.key()), cursor.value());
+				sum += cursor.key();
+			}
+			assertEquals(sum, map.keyStream().parallel().asLongStream().sum());
+			assertEquals(299, map.parallelStream().count());
+			map.setStatsEnabled(false);
+		}
+		//putAll works across engines
+		OpenHashMap copy = new OpenHashMap();
+		copy.putAll(maps[0]);
+		ChainedHashMap back = new ChainedHashMap();
+		back.putAll(copy);
+		assertEquals(299, back.getSize());
+		for(int key : keys) {
+			assertEquals(maps[1].get(key), back.get(key));
+		}
+		//reserve never asks for more than the 9000 keys there can be
+		OpenHashMap open = new OpenHashMap();
+		open.reserve(Integer.MAX_VALUE);
+		assertEquals(32768, open.getTableLength());
+	}
+	
+	//Testing ConcurrentChainedHashMap Class
+	
+	@Test
+	public void testingConcurrentMapSingleThread() {
+		ConcurrentChainedHashMap map = new ConcurrentChainedHashMap();
+		ChainedHashMap plain = new ChainedHashMap();
+		try {
+			map.put(100, "no");
+		} catch(Exception e) {
+			assertEquals("Key must be 4 digits long", e.getMessage());
+		}
+		//same answers as the single-threaded map
+		for(int key = 1000; key <= 9999; key += 7) {
+			map.put(key, "v" + key % 5);
+			plain.put(key, "v" + key % 5);
+		}
+		for(int key = 1000; key <= 9999; key += 21) {
+			map.remove(key);
+			plain.remove(key);
+		}
+		assertEquals(plain.getSize(), map.getSize());
+		for(int key = 1000; key <= 9999; key++) {
+			assertEquals(plain.get(key), map.get(key));
+		}
+		assertEquals(plain.getValues("v3").size(), map.getValues("v3").size());
+		int count = 0;
+		for(ChainedHashMap.Entry e : map) {
+			assertTrue(plain.containsKey(e.getKey()));
+			count++;
+		}
+		assertEquals(plain.getSize(), count);
+	}
+	
+	@Test
+	public void testingConcurrentMapManyThreads() throws Exception {
+		final int threads = 8;
+		final int rounds = 50;
+		ConcurrentChainedHashMap map = new ConcurrentChainedHashMap();
+		ChainedHashMap plain = new ChainedHashMap();
+		//each thread owns the keys congruent to its id, writes and removes
+		//them while also reading everybody else's
+		runThreads(threads, id -> {
+			for(int r = 0; r < rounds; r++) {
+				for(int key = 1000 + id; key <= 9999; key += threads) {
+					map.put(key, "t" + id);
+					String seen = map.get(key + 1 > 9999 ? 1000 : key + 1);
+					assertTrue(seen == null || seen.startsWith("t"));
+				}
+				for(int key = 1000 + id; key <= 9999; key += 2 * threads) {
+					map.remove(key);
+				}
+			}
+		});
+		//the same work on the single-threaded map, one thread after another.
+		//no thread touches another's keys, so the order doesn't matter
+		for(int id = 0; id < threads; id++) {
+			for(int key = 1000 + id; key <= 9999; key += threads) {
+				plain.put(key, "t" + id);
+			}
+			for(int key = 1000 + id; key <= 9999; key += 2 * threads) {
+				plain.remove(key);
+			}
+		}
+		//every thread removed its even steps and kept its odd ones
+		assertEquals(4496, map.getSize());
+		assertEquals(plain.getSize(), map.getSize());
+		for(int key = 1000; key <= 9999; key++) {
+			assertEquals(plain.get(key), map.get(key));
+		}
+	}
+	
+	private interface Worker {
+		void run(int id) throws Exception;
+	}
+	
+	//runs one worker per id and rethrows the first failure
+	private static void runThreads(int threads, Worker worker) throws Exception {
+		Thread[] pool = new Thread[threads];
+		Throwable[] failure = new Throwable[1];
+		for(int i = 0; i < threads; i++) {
+			final int id = i;
+			pool[i] = new Thread(() -> {
+				try {
+					worker.run(id);
+				} catch(Throwable t) {
+					synchronized(failure) {
+						failure[0] = t;
+					}
+				}
+			});
+			pool[i].start();
+		}
+		for(Thread t : pool) {
+			t.join();
+		}
+		if(failure[0] instanceof Exception) {
+			throw (Exception) failure[0];
+		} else if(failure[0] != null) {
+			throw new AssertionError(failure[0]);
+		}
+	}
+	
+	//Testing ConcurrentMyHashSet Class
+	
+	@Test
+	public void testingConcurrentSetSingleThread() {
+		ConcurrentMyHashSet set = new ConcurrentMyHashSet();
+		try {
+			set.add("ABC");
+		} catch(Exception e) {
+			assertEquals("Invalid Key", e.getMessage());
+		}
+		assertEquals(36978, set.myHashCode("abc"));
+		assertTrue(set.add("dog"));
+		assertFalse(set.add("dog"));
+		assertTrue(set.add("cat"));
+		assertTrue(set.remove("dog"));
+		assertFalse(set.remove("dog"));
+		assertFalse(set.contains("dog"));
+		//grows through several resizes
+		for(int i = 0; i < 5000; i++) {
+			set.add(word(i));
+		}
+		assertEquals(5001, set.size());
+		assertTrue(set.getLoadFactor() < 0.75);
+		assertTrue(set.containsAll(new String[] {"cat", word(0), word(4999)}));
+		assertFalse(set.containsAll(new String[] {"cat", word(5000)}));
+	}
+	
+	@Test
+	public void testingConcurrentSetManyThreads() throws Exception {
+		final int threads = 8;
+		final int perThread = 1000;
+		ConcurrentMyHashSet set = new ConcurrentMyHashSet();
+		set.setLoadFactorThreshold(0.85);
+		//each thread adds its own words, removes every third one and keeps
+		//checking words that nobody removes, all while the table resizes
+		runThreads(threads, id -> {
+			for(int i = id; i < threads * perThread; i += threads) {
+				assertTrue(set.add(word(i)));
+				if(i % 3 == 0) {
+					assertTrue(set.remove(word(i)));
+				}
+				if(i >= threads) {
+					int older = i - threads;
+					assertEquals(older % 3 != 0, set.contains(word(older)));
+				}
+			}
+		});
+		int expected = 0;
+		for(int i = 0; i < threads * perThread; i++) {
+			assertEquals(i % 3 != 0, set.contains(word(i)));
+			if(i % 3 != 0) {
+				expected++;
+			}
+		}
+		assertEquals(expected, set.size());
+	}
+	
+	@Test
+	public void testingConcurrentSetChurn() throws Exception {
+		final int threads = 8;
+		final int perThread = 20000;
+		final int window = 100;
+		ConcurrentMyHashSet set = new ConcurrentMyHashSet();
+		//each thread adds its own words and removes them again window adds
+		//later, so the set stays small while tombstones keep piling up
+		runThreads(threads, id -> {
+			for(int i = 0; i < perThread; i++) {
+				assertTrue(set.add(word(500000 + id + threads * i)));
+				if(i >= window) {
+					assertTrue(set.remove(word(500000 + id + threads * (i - window))));
+				}
+			}
+		});
+		assertEquals(threads * window, set.size());
+		for(int i = 0; i < perThread; i++) {
+			for(int id = 0; id < threads; id++) {
+				assertEquals(i >= perThread - window, set.contains(word(500000 + id + threads * i)));
+			}
+		}
+		//tombstones are reused or rebuilt away, the table doesn't grow with the churn
+		assertTrue(set.getLoadFactor() > 0.1);
+	}
+	
+	//a distinct lowercase word of up to 5 letters for every n < 26^5
+	private static String word(int n) {
+		StringBuilder sb = new StringBuilder();
+		do {
+			sb.append((char) ('a' + n % 26));
+			n /= 26;
+		} while(n > 0);
+		return sb.toString();
+	}
+	
+	//Testing PackedHashSet Class
+	
+	@Test
+	public void testingPackedHashSet() {
+		PackedHashSet set = new PackedHashSet();
+		String err = "Invalid Key";
+		try {
+			set.add("Apple");
+		} catch(Exception e) {
+			assertEquals(err, e.getMessage());
+		}
+		try {
+			set.contains("sixsix");
+		} catch(Exception e) {
+			assertEquals(err, e.getMessage());
+		}
+		set.add("a");
+		set.add("zzzzz");
+		set.add("cat");
+		set.add("cat");
+		assertEquals(3, set.size());
+		//straight from a char[] or any CharSequence
+		char[] buffer = "xxcatxx".toCharArray();
+		assertTrue(set.contains(buffer, 2, 3));
+		assertFalse(set.contains(buffer, 1, 3));
+		assertTrue(set.contains(new StringBuilder("zzzzz")));
+		set.add(buffer, 0, 2);
+		assertTrue(set.contains("xx"));
+		set.remove(buffer, 2, 3);
+		assertFalse(set.contains("cat"));
+		assertEquals(3, set.size());
+		assertTrue(set.toString().contains("DELETED"));
+		assertTrue(set.containsAll(new String[] {"a", "zzzzz", "xx"}));
+		assertFalse(set.containsAll(new String[] {"a", "ABC"}));
+		//churn never fills the table with deleted slots
+		for(int i = 0; i < 20000; i++) {
+			//five letter words, none of the three above
+			set.add(word(500000 + i));
+			set.remove(word(500000 + i));
+		}
+		assertEquals(3, set.size());
+		assertTrue(set.getLoadFactor() <= 0.75);
+		//same set as MyHashSet keeps for the same words
+		PackedHashSet big = new PackedHashSet();
+		for(int i = 0; i < 1000; i++) {
+			big.add(word(i * 7));
+		}
+		assertEquals(1000, big.size());
+		for(int i = 0; i < 7000; i++) {
+			assertEquals(i % 7 == 0, big.contains(word(i)));
+		}
+	}
+	
+	//Testing BulkLoader Class
+	
+	@Test
+	public void testingBulkLoader() throws Exception {
+		//the pubTest02 dump holds keys 1000 - 1099 many times over
+		ChainedHashMap map = new ChainedHashMap();
+		map.put(1000, "old");
+		BulkLoader.Report report = BulkLoader.loadMap(Path.of("pubTest02.txt"), map);
+		assertTrue(report.getRead() > 100);
+		assertEquals(0, report.getSkipped());
+		assertEquals(100, map.getSize());
+		for(int key = 1000; key < 1100; key++) {
+			assertEquals("Value" + key, map.get(key));
+		}
+		//the pubTest04 dump skips its null slots, and of the hash code lines
+		//at the end only "for" is a valid key, the other 8 tokens are skipped
+		MyHashSet set = new MyHashSet();
+		report = BulkLoader.loadSet(Path.of("pubTest04.txt"), set);
+		assertEquals(12, report.getRead());
+		assertEquals(8, report.getSkipped());
+		assertEquals(11, set.size());
+		assertTrue(set.contains("for"));
+		assertTrue(set.containsAll(new String[] {"cat", "hawk", "goose", "ibis", "fish"}));
+		assertFalse(set.contains("null"));
+		Path file = Files.createTempFile("bulk", ".txt");
+		try {
+			//big enough for several chunks, same result as one put or add
+			//per record in file order
+			Random rand = new Random(24);
+			StringBuilder text = new StringBuilder();
+			ChainedHashMap expected = new ChainedHashMap();
+			expected.setDenseMode(false);
+			for(int i = 0; i < 250000; i++) {
+				int key = 1000 + rand.nextInt(600);
+				text.append("(").append(key).append(", v").append(i).append(")");
+				text.append(i % 3 == 0 ? "\n" : " ");
+				expected.put(key, "v" + i);
+			}
+			Files.writeString(file, text);
+			map = new ChainedHashMap();
+			map.setDenseMode(false);
+			assertEquals(250000, BulkLoader.loadMap(file, map).getRead());
+			assertEquals(expected.getSize(), map.getSize());
+			for(ChainedHashMap.Entry e : expected) {
+				assertEquals(expected.get(e.getKey()), map.get(e.getKey()));
+			}
+			text.setLength(0);
+			MyHashSet words = new MyHashSet();
+			for(int i = 0; i < 400000; i++) {
+				String w = word(500000 + rand.nextInt(30000));
+				text.append(w).append(i % 7 == 0 ? "\n" : "\t");
+				words.add(w);
+			}
+			text.append("Not A Word 123\n");
+			Files.writeString(file, text);
+			set = new MyHashSet();
+			report = BulkLoader.loadSet(file, set);
+			assertEquals(400000, report.getRead());
+			assertEquals(4, report.getSkipped());
+			assertEquals(words.size(), set.size());
+			for(int i = 0; i < 30000; i++) {
+				assertEquals(words.contains(word(500000 + i)), set.contains(word(500000 + i)));
+			}
+			//bad pairs are skipped and counted, same as bad words in a set file
+			Files.writeString(file, "(1000, a) (10x0, b) (999, c) (1001, d\n(1002, e)\n");
+			map = new ChainedHashMap();
+			report = BulkLoader.loadMap(file, map);
+			assertEquals(2, report.getRead());
+			assertEquals(3, report.getSkipped());
+			assertEquals("2 read, 3 skipped", report.toString());
+			assertEquals(2, map.getSize());
+			assertEquals("a", map.get(1000));
+			assertEquals("e", map.get(1002));
+			assertFalse(map.containsKey(1001));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	//Testing OffHeapHashSet Class
+	
+	@Test
+	public void testingOffHeapHashSet() {
+		OffHeapHashSet set = new OffHeapHashSet();
+		try {
+			set.add("Apple");
+			fail();
+		} catch(IllegalArgumentException e) {
+			assertEquals("Invalid Key", e.getMessage());
+		}
+		set.add("a");
+		set.add("zzzzz");
+		set.add("cat");
+		set.add("cat");
+		assertEquals(3, set.size());
+		assertTrue(set.contains(new StringBuilder("zzzzz")));
+		set.remove("cat");
+		assertFalse(set.contains("cat"));
+		assertTrue(set.toString().contains("DELETED"));
+		assertTrue(set.containsAll(new String[] {"a", "zzzzz"}));
+		//same answers as PackedHashSet through growth and churn
+		set.close();
+		set = new OffHeapHashSet();
+		PackedHashSet packed = new PackedHashSet();
+		set.setLoadFactorThreshold(0.60);
+		packed.setLoadFactorThreshold(0.60);
+		for(int i = 0; i < 30000; i++) {
+			set.add(word(i * 3));
+			packed.add(word(i * 3));
+			if(i % 4 == 0) {
+				set.remove(word(i));
+				packed.remove(word(i));
+			}
+		}
+		assertEquals(packed.size(), set.size());
+		assertEquals(packed.getLoadFactor(), set.getLoadFactor(), 0.0);
+		assertEquals(packed.toString(), set.toString());
+		for(int i = 0; i < 90000; i++) {
+			assertEquals(packed.contains(word(i)), set.contains(word(i)));
+		}
+		assertTrue(set.offHeapBytes() >= 4L * set.size());
+		//closing frees the table, twice is fine, anything else throws
+		set.close();
+		set.close();
+		assertEquals(0, set.offHeapBytes());
+		try {
+			set.contains("a");
+			fail();
+		} catch(IllegalStateException e) {
+			assertEquals("Set is closed", e.getMessage());
+		}
+		try(OffHeapHashSet scoped = new OffHeapHashSet()) {
+			scoped.add("dog");
+			assertTrue(scoped.contains("dog"));
+		}
+	}
+	
 	//Testing MyHashSet Class
 	
 	@Test
@@ -510,6 +1777,356 @@ public class StudentTests {
         }
     }
 
+    @Test
+    public void testBitmapMode() {
+        MyHashSet set = new MyHashSet();
+        //five letter words, so none of them collide with "cat"
+        for(int i = 0; i < 32768; i++) {
+        	set.add(word(500000 + i));
+        }
+        assertTrue(set.getLoadFactor() > 0.3);
+        set.add("cat");
+        //one over the break-even point, now a bitmap over every possible key
+        assertEquals(32769, set.size());
+        assertTrue(set.getLoadFactor() < 0.01);
+        set.add("cat");
+        assertEquals(32769, set.size());
+        assertTrue(set.contains("cat"));
+        assertFalse(set.contains("dog"));
+        assertTrue(set.containsAll(new String[] {"cat", word(500000), word(532767)}));
+        assertFalse(set.containsAll(new String[] {"cat", "dog"}));
+        try {
+        	set.add("CAT");
+        } catch(Exception e) {
+        	assertEquals("Invalid Key", e.getMessage());
+        }
+        //toString lists only what is there, by code
+        assertTrue(set.toString().startsWith("Index 2234: cat\n"));
+        //back to the table once it is sparse again
+        set.remove("cat");
+        for(int i = 0; i < 16386; i++) {
+        	set.remove(word(500000 + i));
+        }
+        assertEquals(16382, set.size());
+        assertTrue(set.getLoadFactor() > 0.3 && set.getLoadFactor() <= 0.75);
+        assertFalse(set.contains(word(500000)));
+        assertTrue(set.contains(word(532767)));
+        assertTrue(set.toString().startsWith("Index 0: "));
+    }
+    
+    @Test
+    public void testChurnKeepsProbesShort() {
+        MyHashSet set = new MyHashSet();
+        Random random = new Random(42);
+        //a steady population of 1000 words out of a pool of 4000
+        String[] pool = new String[4000];
+        for(int i = 0; i < pool.length; i++) {
+        	pool[i] = word(500000 + 37 * i);
+        }
+        for(int i = 0; i < 1000; i++) {
+        	set.add(pool[i]);
+        }
+        //two million adds and removes at random. every so often the probe
+        //length is checked against a set freshly built from the same words,
+        //which has no DELETED slots at all
+        for(int op = 1; op <= 2000000; op++) {
+        	String key = pool[random.nextInt(pool.length)];
+        	if(set.contains(key)) {
+        		set.remove(key);
+        	} else {
+        		set.add(key);
+        	}
+        	if(op % 100000 == 0) {
+        		MyHashSet fresh = new MyHashSet();
+        		for(String word : set) {
+        			fresh.add(word);
+        		}
+        		assertEquals(fresh.getLoadFactor(), set.getLoadFactor(), 0.0);
+        		assertTrue(set.getAverageProbeLength() < 2 * fresh.getAverageProbeLength());
+        	}
+        }
+        //the population drifts to half the pool
+        assertTrue(set.size() > 1500 && set.size() < 2500);
+    }
+    
+    @Test
+    public void testRobinHood() {
+        MyHashSet linear = new MyHashSet();
+        MyHashSet robin = new MyHashSet();
+        linear.setLoadFactorThreshold(0.85);
+        robin.setLoadFactorThreshold(0.85);
+        robin.add("cat");
+        //switching rehashes what is already there
+        robin.setRobinHood(true);
+        assertTrue(robin.contains("cat"));
+        robin.remove("cat");
+        Random random = new Random(7);
+        String[] words = new String[1200];
+        for(int i = 0; i < words.length; i++) {
+        	words[i] = word(500000 + random.nextInt(1000000));
+        	linear.add(words[i]);
+        	robin.add(words[i]);
+        }
+        assertEquals(linear.size(), robin.size());
+        for(String w : words) {
+        	assertTrue(robin.contains(w));
+        }
+        assertFalse(robin.contains("cat"));
+        //same keys, but displacement spread is smaller
+        assertTrue(displacementVariance(robin) <= displacementVariance(linear));
+        //removing shifts keys back, so no DELETED slots are left
+        for(int i = 0; i < words.length; i += 2) {
+        	robin.remove(words[i]);
+        	linear.remove(words[i]);
+        }
+        assertEquals(linear.size(), robin.size());
+        assertFalse(robin.toString().contains("DELETED"));
+        for(int i = 0; i < words.length; i++) {
+        	assertEquals(linear.contains(words[i]), robin.contains(words[i]));
+        }
+    }
+    
+    //variance of how far each key sits from its home slot, read off toString
+    private static double displacementVariance(MyHashSet set) {
+    	String[] lines = set.toString().split("\n");
+    	int length = lines.length;
+    	double sum = 0;
+    	double squares = 0;
+    	int count = 0;
+    	for(int i = 0; i < length; i++) {
+    		String key = lines[i].substring(lines[i].indexOf(": ") + 2);
+    		if(key.equals("null") || key.equals("DELETED")) {
+    			continue;
+    		}
+    		int dist = (i - set.myHashCode(key) % length + length) % length;
+    		sum += dist;
+    		squares += (double) dist * dist;
+    		count++;
+    	}
+    	double mean = sum / count;
+    	return squares / count - mean * mean;
+    }
+    
+    @Test
+    public void testStats() {
+        MyHashSet set = new MyHashSet();
+        set.setStatsEnabled(true);
+        HashTableStats stats = set.getStats();
+        String[] words = {"cat", "dog", "bird", "fish", "cow", "ant", "bee"};
+        for(String w : words) {
+        	set.add(w);
+        }
+        assertEquals(7, stats.getSize());
+        assertEquals(set.toString().split("\n").length, stats.getTableLength());
+        assertTrue(stats.getRehashCount() > 0);
+        set.remove("cow");
+        set.remove("ant");
+        assertEquals(2, stats.getTombstones());
+        assertTrue(set.contains("cat"));
+        assertFalse(set.contains("cow"));
+        assertTrue(set.containsAll(new String[] {"dog", "bee"}));
+        assertEquals(3, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        //runs cover every taken slot, probes cover every key
+        int[] runs = stats.getChainLengthHistogram();
+        int taken = 0;
+        for(int i = 0; i < runs.length; i++) {
+        	taken += i * runs[i];
+        }
+        assertEquals(5 + 2, taken);
+        int[] probes = stats.getProbeLengthHistogram();
+        assertEquals(5, Arrays.stream(probes).sum());
+        assertEquals(0, probes[0]);
+        stats.reset();
+        assertEquals(0, stats.getHits());
+        assertEquals(0, stats.getRehashCount());
+    }
+    
+    @Test
+    public void testAddAll() {
+        MyHashSet set = new MyHashSet();
+        MyHashSet plain = new MyHashSet();
+        set.add("cat");
+        set.add("dog");
+        set.remove("dog");
+        plain.add("cat");
+        String[] words = new String[2000];
+        for(int i = 0; i < words.length; i++) {
+        	words[i] = word(500000 + (i % 1500) * 13);
+        	plain.add(words[i]);
+        }
+        set.setStatsEnabled(true);
+        set.addAll(words);
+        assertEquals(1, set.getStats().getRehashCount());
+        assertEquals(plain.size(), set.size());
+        assertTrue(set.containsAll(words));
+        assertTrue(set.contains("cat"));
+        assertFalse(set.contains("dog"));
+        assertTrue(set.getLoadFactor() <= 0.75);
+        //an invalid key anywhere adds nothing
+        try {
+        	set.addAll(new String[] {"zebra", "Nope"});
+        	fail();
+        } catch(IllegalArgumentException e) {
+        	assertFalse(set.contains("zebra"));
+        }
+        //merging two sets, table into table and bitmap into bitmap
+        MyHashSet other = new MyHashSet();
+        other.add("zebra");
+        other.add("cat");
+        set.addAll(other);
+        assertEquals(plain.size() + 1, set.size());
+        MyHashSet big = new MyHashSet();
+        MyHashSet bigger = new MyHashSet();
+        for(int i = 0; i < 40000; i++) {
+        	big.add(word(500000 + i));
+        	bigger.add(word(520000 + i));
+        }
+        big.addAll(bigger);
+        assertEquals(60000, big.size());
+        assertTrue(big.contains(word(559999)));
+        set.addAll(big);
+        assertTrue(set.contains("zebra"));
+        assertTrue(set.contains(word(500000)));
+    }
+    
+    @Test
+    public void testStreams() {
+        MyHashSet set = new MyHashSet();
+        assertFalse(set.iterator().hasNext());
+        java.util.HashSet<String> expected = new java.util.HashSet<>();
+        for(int i = 0; i < 3000; i++) {
+        	set.add(word(500000 + i * 7));
+        	expected.add(word(500000 + i * 7));
+        }
+        for(int i = 0; i < 3000; i += 3) {
+        	set.remove(word(500000 + i * 7));
+        	expected.remove(word(500000 + i * 7));
+        }
+        java.util.HashSet<String> walked = new java.util.HashSet<>();
+        for(String key : set) {
+        	walked.add(key);
+        }
+        assertEquals(expected, walked);
+        assertEquals(expected, set.parallelStream().collect(java.util.stream.Collectors.toSet()));
+        assertEquals(set.size(), set.stream().count());
+        java.util.Spliterator<String> rest = set.spliterator();
+        java.util.Spliterator<String> first = rest.trySplit();
+        assertEquals(set.size(), first.getExactSizeIfKnown() + rest.getExactSizeIfKnown());
+        //bitmap mode walks the codes in order
+        MyHashSet big = new MyHashSet();
+        for(int i = 0; i < 40000; i++) {
+        	big.add(word(500000 + i));
+        }
+        assertEquals(40000, big.parallelStream().distinct().count());
+        assertEquals(big.stream().filter(k -> k.startsWith("a")).count(),
+        		big.parallelStream().filter(k -> k.startsWith("a")).count());
+        java.util.Spliterator<String> right = big.spliterator();
+        java.util.Spliterator<String> left = right.trySplit();
+        assertEquals(40000, left.getExactSizeIfKnown() + right.getExactSizeIfKnown());
+        String[] ordered = big.stream().toArray(String[]::new);
+        assertArrayEquals(ordered, big.parallelStream().toArray(String[]::new));
+    }
+    
+    @Test
+    public void testReserve() {
+        MyHashSet set = new MyHashSet(1000);
+        set.setStatsEnabled(true);
+        int length = set.toString().split("\n").length;
+        assertTrue(1000.0 / length <= 0.75);
+        for(int i = 0; i < 1000; i++) {
+        	set.add(word(500000 + i));
+        }
+        assertEquals(0, set.getStats().getRehashCount());
+        assertEquals(length, set.toString().split("\n").length);
+        //a lower threshold needs a bigger table for the same keys
+        set.setLoadFactorThreshold(0.45);
+        set.reserve(1000);
+        assertEquals(1, set.getStats().getRehashCount());
+        assertTrue(set.getLoadFactor() <= 0.45);
+        set.reserve(10);
+        assertEquals(1, set.getStats().getRehashCount());
+        try {
+        	set.reserve(-1);
+        	fail();
+        } catch(IllegalArgumentException e) {
+        }
+        assertEquals(2, new MyHashSet(0).toString().split("\n").length);
+        //reserving more than BITMAP_ON keys sizes the table for as many as a
+        //table ever holds, without switching the empty set to the bitmap
+        MyHashSet big = new MyHashSet(40000);
+        big.setStatsEnabled(true);
+        int bigLength = big.toString().split("\n").length;
+        assertEquals(51437, bigLength);
+        for(int i = 0; i < 40000; i++) {
+        	big.add(word(500000 + i));
+        }
+        //the one switch to the bitmap
+        assertEquals(1, big.getStats().getRehashCount());
+        //dropping out of the bitmap goes back to the reserved table
+        for(int i = 0; i < 25000; i++) {
+        	big.remove(word(500000 + i));
+        }
+        assertEquals(2, big.getStats().getRehashCount());
+        assertEquals(bigLength, big.toString().split("\n").length);
+        //so refilling it doesn't climb the resize ladder again
+        for(int i = 0; i < 17768; i++) {
+        	big.add(word(500000 + i));
+        }
+        assertEquals(32768, big.size());
+        assertEquals(2, big.getStats().getRehashCount());
+        assertEquals(bigLength, big.toString().split("\n").length);
+    }
+    
+    @Test
+    public void testNoAllocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+        		java.lang.management.ManagementFactory.getThreadMXBean();
+        MyHashSet set = new MyHashSet(2000);
+        String[] words = new String[1000];
+        StringBuilder[] builders = new StringBuilder[1000];
+        for(int i = 0; i < words.length; i++) {
+        	words[i] = word(500000 + i);
+        	builders[i] = new StringBuilder(word(600000 + i));
+        	set.add(words[i]);
+        }
+        //warm up, so class loading and compilation happen outside the count
+        boolean all = churn(set, words, builders);
+        threads.getCurrentThreadAllocatedBytes();
+        //the JVM itself sometimes allocates a few bytes on this thread (a
+        //deoptimization, say), so take the best of a few tries
+        long least = Long.MAX_VALUE;
+        for(int attempt = 0; attempt < 5 && least > 0; attempt++) {
+        	long before = threads.getCurrentThreadAllocatedBytes();
+        	for(int round = 0; round < 10; round++) {
+        		all &= churn(set, words, builders);
+        	}
+        	least = Math.min(least, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        assertTrue(all);
+        //10 rounds of 5000 operations and not one byte
+        assertEquals(0, least);
+        //a StringBuilder works as a key, and is copied when it is stored
+        set.add(builders[0]);
+        builders[0].setCharAt(0, 'a');
+        assertFalse(set.contains(builders[0]));
+        assertTrue(set.contains(word(600000)));
+    }
+    
+    //contains hits and misses, add of keys that are there, and remove plus
+    //add again, which reuses the DELETED slot. returns true if every hit hit
+    private static boolean churn(MyHashSet set, String[] words, StringBuilder[] misses) {
+    	boolean all = true;
+    	for(int i = 0; i < words.length; i++) {
+    		all &= set.contains(words[i]);
+    		all &= !set.contains(misses[i]);
+    		set.add(words[i]);
+    		set.remove(words[i]);
+    		set.add(words[i]);
+    	}
+    	return all;
+    }
+    
     @Test
     public void testContainsAndContainsAll() {
         MyHashSet set = new MyHashSet();
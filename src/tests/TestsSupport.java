@@ -26,13 +26,13 @@ public class TestsSupport {
 	 */
 	public static boolean isCorrect(String filename, String results) {
 		officialUseIgnore(filename, results);
-        String officialResults="";
+        StringBuilder officialResults = new StringBuilder();
         try {
             BufferedReader fin = new BufferedReader(new FileReader(filename));
            
             String line;
             while ((line = fin.readLine()) != null) {
-                officialResults += line + "\n";
+                officialResults.append(line).append("\n");
             }
             fin.close();
         }catch (IOException e) {
@@ -41,10 +41,10 @@ public class TestsSupport {
         } 
         
         results = removeBlanks(results);
-        officialResults = removeBlanks(officialResults);
+        String official = removeBlanks(officialResults.toString());
         
         
-        if (results.equals(officialResults)) {
+        if (results.equals(official)) {
             return true;
         }
         